@@ -0,0 +1,44 @@
+package cn.com.bjjdsy.ksp.bench;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cn.com.bjjdsy.ksp.CompactGraph;
+import cn.com.bjjdsy.ksp.Graph;
+
+/**
+ * Time to build the network from the text files and from the snapshot
+ *
+ * Run from the directory holding the input files.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GraphLoadBenchmark {
+
+	@Benchmark
+	public CompactGraph readText() {
+		Graph g = new Graph();
+		g.readGraph();
+		return g.getCompactGraph();
+	}
+
+	@Benchmark
+	public CompactGraph readSnapshot() {
+		// the first call writes the snapshot, the rest read it
+		Graph g = new Graph();
+		g.readGraph(new File(Graph.SNAPSHOT));
+		return g.getCompactGraph();
+	}
+}
@@ -0,0 +1,80 @@
+package cn.com.bjjdsy.ksp.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cn.com.bjjdsy.ksp.CompactGraph;
+import cn.com.bjjdsy.ksp.Graph;
+import cn.com.bjjdsy.ksp.PathFormat;
+import cn.com.bjjdsy.ksp.PathStore;
+import cn.com.bjjdsy.ksp.PathWriter;
+
+/**
+ * Formatting all the stored paths as output rows: printed to a writer that
+ * drops them so only the formatting is measured, and written to a file by
+ * PathWriter
+ *
+ * Run from the directory holding the input files.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OutputBenchmark {
+	@Param({ "10" })
+	public int k;
+
+	private PathStore store;
+	private File file;
+
+	@Setup
+	public void setup() throws IOException {
+		Graph graph = new Graph();
+		graph.readGraph();
+		graph.getPaths(k, Runtime.getRuntime().availableProcessors());
+		store = graph.getResults();
+		file = File.createTempFile("paths", ".txt");
+		file.deleteOnExit();
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Benchmark
+	public void printAll() {
+		CompactGraph g = store.getGraph();
+		PrintWriter fout = new PrintWriter(Writer.nullWriter());
+		for (int origin = 0; origin < g.getNodes(); ++origin)
+			for (int dest = 0; dest < g.getNodes(); ++dest)
+				if (dest != origin)
+					for (int rank = 0; rank < store.count(origin, dest); ++rank)
+						PathFormat.print(fout, store, store.path(origin, dest, rank), rank + 1);
+		fout.flush();
+	}
+
+	@Benchmark
+	public void writeAll() {
+		PathWriter.write(store, file, Runtime.getRuntime().availableProcessors(), false);
+	}
+}
@@ -0,0 +1,106 @@
+package cn.com.bjjdsy.ksp.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import cn.com.bjjdsy.ksp.Graph;
+import cn.com.bjjdsy.ksp.KShortestPathEngine;
+import cn.com.bjjdsy.ksp.Path;
+import cn.com.bjjdsy.ksp.PathStore;
+
+/**
+ * The K shortest path searches: one origin, all the origins, and the path
+ * operations of the inner loop
+ *
+ * Run from the directory holding the input files.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+	@Param({ "3", "10", "30" })
+	public int k;
+
+	private Graph graph;
+	private KShortestPathEngine engine;
+	private int origin;
+
+	// two paths of the search for the copy and compare benchmarks
+	private Path first;
+	private Path second;
+
+	@Setup
+	public void setup() {
+		graph = new Graph();
+		graph.readGraph();
+		engine = graph.getEngine();
+
+		// the origin with the most paths stands for the expensive end of a run
+		int best = -1;
+		for (int u = 0; u < graph.getStations(); ++u) {
+			Path[][] found = engine.search(u, k);
+			int count = 0;
+			for (Path[] paths : found)
+				if (paths != null)
+					for (Path p : paths)
+						if (p != null)
+							count++;
+			if (count > best) {
+				best = count;
+				origin = u;
+			}
+		}
+
+		// the longest path found from it and its successor
+		for (Path[] paths : engine.search(origin, k))
+			if (paths != null && paths.length > 1 && paths[1] != null
+					&& (first == null || paths[0].getStations().size() > first.getStations().size())) {
+				first = paths[0];
+				second = paths[1];
+			}
+	}
+
+	@Benchmark
+	public Path[][] searchOrigin() {
+		return engine.search(origin, k);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@Warmup(iterations = 1)
+	@Measurement(iterations = 3)
+	public PathStore searchAll() {
+		graph.getPaths(k, 1);
+		return graph.getResults();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public Path copyPath() {
+		return new Path(first);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public void comparePaths(Blackhole bh) {
+		bh.consume(first.compareTo(second));
+		bh.consume(second.compareTo(first));
+	}
+}
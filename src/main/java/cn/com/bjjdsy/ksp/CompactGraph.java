@@ -0,0 +1,381 @@
+package cn.com.bjjdsy.ksp;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Compressed sparse row view of the station graph
+ *
+ * Stations are addressed by their index in the Graph and the outgoing
+ * connections of station u are the edges offsets[u] .. offsets[u + 1] - 1,
+ * sorted by the index of the target station. The search loops run on these
+ * arrays instead of the TreeSet/TreeMap adjacency of Station. The graph never
+ * changes, other weights make a new graph through withWeights or withWeight,
+ * so a search can run while the weights of its Graph change.
+ *
+ */
+public final class CompactGraph {
+	// number of stations and connections
+	private final int nodes;
+	private final int edges;
+
+	// adjacency: first edge of every station, source and target of every edge
+	private final int[] offsets;
+	private final int[] sources;
+	private final int[] targets;
+
+	// reverse adjacency: first incoming slot of every station, edge of every slot
+	private final int[] inOffsets;
+	private final int[] inEdges;
+
+	// weights and flags of every edge
+	private final int[] times;
+	private final double[] impedances;
+	private final boolean[] transfers;
+
+	// per station data
+	private final int[] stationIDs;
+	private final int[] trackIDs;
+	private final int[] tsCodes;
+
+	// dense index of the transfer station code of every station, -1 if none
+	private final int[] tsIndices;
+	private final int transferStations;
+
+	// index of every station ID
+	private final int[] indices;
+
+	// the objects behind the indices, used to build Paths
+	private final Station[] stationObjects;
+	private final Line[] lineObjects;
+
+	/**
+	 * Builds the compact graph from the stations
+	 *
+	 * pre: every neighbor of a station is in the array
+	 *
+	 * @param stations The stations, ordered by their index
+	 * @param indices  The index of every station ID
+	 */
+	public CompactGraph(Station[] stations, int[] indices) {
+		nodes = stations.length;
+
+		// count the edges
+		int count = 0;
+		for (Station s : stations)
+			count += s.getNeighbors().size();
+		edges = count;
+
+		offsets = new int[nodes + 1];
+		sources = new int[edges];
+		targets = new int[edges];
+		inOffsets = new int[nodes + 1];
+		inEdges = new int[edges];
+		times = new int[edges];
+		impedances = new double[edges];
+		transfers = new boolean[edges];
+		stationIDs = new int[nodes];
+		trackIDs = new int[nodes];
+		tsCodes = new int[nodes];
+		tsIndices = new int[nodes];
+		this.indices = indices.clone();
+		stationObjects = stations.clone();
+		lineObjects = new Line[edges];
+
+		int e = 0;
+		for (int u = 0; u < nodes; ++u) {
+			Station s = stations[u];
+			offsets[u] = e;
+			stationIDs[u] = s.getID();
+			trackIDs[u] = s.getLine() == null ? -1 : s.getLine().getID();
+			tsCodes[u] = s.getTsCode();
+
+			// the neighbors are iterated in ID order, which is the index order
+			for (Station next : s.getNeighbors()) {
+				Line connect = s.getConnection(next);
+				int v = indices[next.getID()];
+				if (v < 0 || stations[v] != next)
+					throw new IllegalArgumentException("Station " + next.getID() + " is not part of the graph.");
+
+				sources[e] = u;
+				targets[e] = v;
+				times[e] = connect.getTime();
+				impedances[e] = connect.getImpedance();
+				transfers[e] = connect.getDir() == -1;
+				lineObjects[e] = connect;
+				e++;
+			}
+		}
+		offsets[nodes] = e;
+
+		// number the transfer station codes
+		HashMap<Integer, Integer> codes = new HashMap<>();
+		for (int u = 0; u < nodes; ++u) {
+			tsIndices[u] = -1;
+			if (tsCodes[u] != 0) {
+				Integer index = codes.get(tsCodes[u]);
+				if (index == null) {
+					index = codes.size();
+					codes.put(tsCodes[u], index);
+				}
+				tsIndices[u] = index;
+			}
+		}
+		transferStations = codes.size();
+
+		// group the edges by target for the reverse adjacency
+		for (int i = 0; i < edges; ++i)
+			inOffsets[targets[i] + 1]++;
+		for (int v = 0; v < nodes; ++v)
+			inOffsets[v + 1] += inOffsets[v];
+		int[] fill = Arrays.copyOf(inOffsets, nodes);
+		for (int i = 0; i < edges; ++i)
+			inEdges[fill[targets[i]]++] = i;
+	}
+
+	/**
+	 * @return the number of stations
+	 */
+	public int getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * @return the number of connections
+	 */
+	public int getEdges() {
+		return edges;
+	}
+
+	/**
+	 * @param u Station index
+	 * @return The first outgoing edge of the station
+	 */
+	public int firstEdge(int u) {
+		return offsets[u];
+	}
+
+	/**
+	 * @param u Station index
+	 * @return One past the last outgoing edge of the station
+	 */
+	public int endEdge(int u) {
+		return offsets[u + 1];
+	}
+
+	/**
+	 * @param v Station index
+	 * @return The first incoming slot of the station
+	 */
+	public int firstInEdge(int v) {
+		return inOffsets[v];
+	}
+
+	/**
+	 * @param v Station index
+	 * @return One past the last incoming slot of the station
+	 */
+	public int endInEdge(int v) {
+		return inOffsets[v + 1];
+	}
+
+	/**
+	 * @param slot Incoming slot
+	 * @return The edge in the slot
+	 */
+	public int inEdge(int slot) {
+		return inEdges[slot];
+	}
+
+	/**
+	 * @param e Edge index
+	 * @return The index of the station the edge starts at
+	 */
+	public int source(int e) {
+		return sources[e];
+	}
+
+	/**
+	 * @param e Edge index
+	 * @return The index of the station the edge leads to
+	 */
+	public int target(int e) {
+		return targets[e];
+	}
+
+	/**
+	 * @param e Edge index
+	 * @return The travel time of the edge
+	 */
+	public int time(int e) {
+		return times[e];
+	}
+
+	/**
+	 * @param e Edge index
+	 * @return The impedance of the edge
+	 */
+	public double impedance(int e) {
+		return impedances[e];
+	}
+
+	/**
+	 * A graph with the same stations and connections and other weights, the
+	 * structure is shared
+	 *
+	 * @param times      The time of every edge
+	 * @param impedances The impedance of every edge
+	 * @return The new graph
+	 */
+	public CompactGraph withWeights(int[] times, double[] impedances) {
+		if (times.length != edges || impedances.length != edges)
+			throw new IllegalArgumentException("The weights are for another graph.");
+		return new CompactGraph(this, times.clone(), impedances.clone());
+	}
+
+	private CompactGraph(CompactGraph graph, int[] times, double[] impedances) {
+		nodes = graph.nodes;
+		edges = graph.edges;
+		offsets = graph.offsets;
+		sources = graph.sources;
+		targets = graph.targets;
+		inOffsets = graph.inOffsets;
+		inEdges = graph.inEdges;
+		this.times = times;
+		this.impedances = impedances;
+		transfers = graph.transfers;
+		stationIDs = graph.stationIDs;
+		trackIDs = graph.trackIDs;
+		tsCodes = graph.tsCodes;
+		tsIndices = graph.tsIndices;
+		transferStations = graph.transferStations;
+		indices = graph.indices;
+		stationObjects = graph.stationObjects;
+		lineObjects = graph.lineObjects;
+	}
+
+	/**
+	 * A graph with the same stations, connections and weights except for one
+	 * edge, the structure is shared
+	 *
+	 * @param e         Edge index
+	 * @param time      The new time
+	 * @param impedance The new impedance
+	 * @return The new graph
+	 */
+	public CompactGraph withWeight(int e, int time, double impedance) {
+		int[] newTimes = times.clone();
+		double[] newImpedances = impedances.clone();
+		newTimes[e] = time;
+		newImpedances[e] = impedance;
+		return new CompactGraph(this, newTimes, newImpedances);
+	}
+
+	/**
+	 * @param e Edge index
+	 * @return If the edge is a transfer walk inside a station
+	 */
+	public boolean isTransfer(int e) {
+		return transfers[e];
+	}
+
+	/**
+	 * Finds the edge between two stations
+	 *
+	 * @param u Start station index
+	 * @param v End station index
+	 * @return The edge index, -1 if they are not connected
+	 */
+	public int findEdge(int u, int v) {
+		for (int e = offsets[u]; e < offsets[u + 1]; ++e)
+			if (targets[e] == v)
+				return e;
+		return -1;
+	}
+
+	/**
+	 * @param u Station index
+	 * @return The ID of the station
+	 */
+	public int stationID(int u) {
+		return stationIDs[u];
+	}
+
+	/**
+	 * @param stationID ID of a station
+	 * @return The index of the station, -1 if it is not in the graph
+	 */
+	public int indexOf(int stationID) {
+		if (stationID < 0 || stationID >= indices.length)
+			return -1;
+		return indices[stationID];
+	}
+
+	/**
+	 * @param u Station index
+	 * @return The ID of the track the station is on, -1 if none
+	 */
+	public int trackID(int u) {
+		return trackIDs[u];
+	}
+
+	/**
+	 * @param u Station index
+	 * @return The transfer station code, 0 if it is not a transfer station
+	 */
+	public int tsCode(int u) {
+		return tsCodes[u];
+	}
+
+	/**
+	 * @param u Station index
+	 * @return The dense index of the transfer station code, -1 if it is not a
+	 *         transfer station
+	 */
+	public int tsIndex(int u) {
+		return tsIndices[u];
+	}
+
+	/**
+	 * @return the number of distinct transfer station codes
+	 */
+	public int getTransferStations() {
+		return transferStations;
+	}
+
+	/**
+	 * @param u Station index
+	 * @return The Station object
+	 */
+	public Station station(int u) {
+		return stationObjects[u];
+	}
+
+	/**
+	 * @param e Edge index
+	 * @return The Line object
+	 */
+	public Line line(int e) {
+		return lineObjects[e];
+	}
+
+	/**
+	 * Build the Path object of a sequence of stations
+	 *
+	 * pre: consecutive stations are connected
+	 *
+	 * @param route     The station indices from start to end
+	 * @param time      The time of the path
+	 * @param impedance The impedance of the path
+	 * @return The path
+	 */
+	public Path toPath(int[] route, int time, double impedance) {
+		Path path = new Path();
+		path.addStation(stationObjects[route[0]]);
+		for (int i = 1; i < route.length; ++i)
+			path.addStation(stationObjects[route[i]], lineObjects[findEdge(route[i - 1], route[i])]);
+		path.setDist(time);
+		path.setImpedance(impedance);
+		return path;
+	}
+}
@@ -0,0 +1,39 @@
+package cn.com.bjjdsy.ksp;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+/**
+ * Writes the paths of every origin to a text file in the printPaths format
+ *
+ */
+public class CsvPathSink implements PathSink {
+	private final PrintWriter fout;
+	private final CompactGraph graph;
+
+	/**
+	 * Constructor for the sink
+	 *
+	 * @param file  The output file
+	 * @param graph The graph the indices refer to
+	 * @throws FileNotFoundException If the file cannot be created
+	 */
+	public CsvPathSink(File file, CompactGraph graph) throws FileNotFoundException {
+		this.fout = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file))));
+		this.graph = graph;
+	}
+
+	@Override
+	public void accept(int origin, Path[][] paths) {
+		PathFormat.print(fout, origin, paths, graph);
+	}
+
+	@Override
+	public void close() {
+		fout.close();
+	}
+}
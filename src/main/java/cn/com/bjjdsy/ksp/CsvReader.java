@@ -0,0 +1,159 @@
+package cn.com.bjjdsy.ksp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reader of the comma separated input files
+ *
+ * The file is memory mapped and the fields are parsed in place: integers
+ * digit by digit and text as GBK. The rows end at the end of the file or at
+ * the first empty line. A missing or malformed field throws an
+ * IllegalArgumentException naming the file and the line.
+ *
+ */
+public final class CsvReader {
+	private static final Charset GBK = Charset.forName("GBK");
+
+	private final String name;
+	private final ByteBuffer buffer;
+
+	// line number, current position and end of the current row
+	private int line;
+	private int pos;
+	private int end;
+
+	// start of the next row
+	private int next;
+
+	/**
+	 * Open a file
+	 *
+	 * @param file    The file
+	 * @param headers Number of header lines skipped
+	 * @throws UncheckedIOException If the file cannot be read
+	 */
+	public CsvReader(File file, int headers) {
+		name = file.getName();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot read " + file, e);
+		}
+
+		for (int i = 0; i < headers; ++i)
+			next = lineEnd(next) + 1;
+		line = headers;
+	}
+
+	/**
+	 * The position of the line break ending the line starting at a position
+	 */
+	private int lineEnd(int start) {
+		int i = start;
+		while (i < buffer.limit() && buffer.get(i) != '\n')
+			i++;
+		return i;
+	}
+
+	/**
+	 * Move to the next row
+	 *
+	 * @return False at the end of the file or at an empty line
+	 */
+	public boolean nextRow() {
+		if (next >= buffer.limit())
+			return false;
+
+		pos = next;
+		end = lineEnd(pos);
+		next = end + 1;
+		if (end > pos && buffer.get(end - 1) == '\r')
+			end--;
+		line++;
+		return end > pos;
+	}
+
+	/**
+	 * Read the next field as an integer
+	 *
+	 * @return The value
+	 */
+	public int nextInt() {
+		checkField();
+
+		boolean negative = pos < end && buffer.get(pos) == '-';
+		if (negative)
+			pos++;
+
+		long value = 0;
+		int digits = 0;
+		while (pos < end && buffer.get(pos) != ',') {
+			int d = buffer.get(pos) - '0';
+			if (d < 0 || d > 9)
+				throw error("Not an integer");
+			value = value * 10 + d;
+			if (value > Integer.MAX_VALUE + 1L)
+				throw error("Integer out of range");
+			digits++;
+			pos++;
+		}
+		if (digits == 0)
+			throw error("Not an integer");
+		if (!negative && value > Integer.MAX_VALUE)
+			throw error("Integer out of range");
+		pos++;
+
+		return (int) (negative ? -value : value);
+	}
+
+	/**
+	 * Read the next field as text
+	 *
+	 * @return The text
+	 */
+	public String nextString() {
+		checkField();
+
+		int start = pos;
+		while (pos < end && buffer.get(pos) != ',')
+			pos++;
+
+		byte[] bytes = new byte[pos - start];
+		for (int i = 0; i < bytes.length; ++i)
+			bytes[i] = buffer.get(start + i);
+		pos++;
+
+		return new String(bytes, GBK);
+	}
+
+	/**
+	 * Skip the next field
+	 */
+	public void skip() {
+		checkField();
+		while (pos < end && buffer.get(pos) != ',')
+			pos++;
+		pos++;
+	}
+
+	private void checkField() {
+		if (pos > end)
+			throw error("Missing field");
+	}
+
+	/**
+	 * Build an error about the current row
+	 *
+	 * @param message What is wrong
+	 * @return The exception to throw
+	 */
+	public IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(name + " line " + line + ": " + message);
+	}
+}
@@ -1,19 +1,25 @@
 package cn.com.bjjdsy.ksp;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.IntFunction;
 
 public class Graph {
 	// input filenames, will change later
@@ -28,11 +34,28 @@ public class Graph {
 	// output filenames
 	public static final String OUTPUT = "shortest_distances_";
 
+	// snapshot of the network built from the input files
+	public static final String SNAPSHOT = "graph_snapshot.bin";
+
 	public static final int MAXLINES = 100;
 	public static final int MAXSTATION = 10000;
 
 	private static final boolean PATHOUTPUT = true;
 
+	// transfers between the two parts of one station take no time
+	private static final Map<Integer, Integer> SPECIALS = new HashMap<>();
+	static {
+		SPECIALS.put(1001, 9069);
+		SPECIALS.put(9069, 1001);
+		SPECIALS.put(1043, 9021);
+		SPECIALS.put(9021, 1043);
+		SPECIALS.put(467, 9319);
+		SPECIALS.put(9319, 467);
+	}
+
+	// share of the depart interval waited when transferring
+	private static final double DEPART_WEIGHT = 0.5;
+
 	// total number of stations and lines
 	private int stations;
 	private int lines;
@@ -43,14 +66,51 @@ public class Graph {
 	private int[] indices;
 	private HashMap<Integer, ArrayList<Integer>> transferToID;
 
-	// the generated shortest paths
-	private Path paths[][][];
-	private int pathCounts[][];
+	// the network the searches run on, replaced as a whole when the weights or
+	// the engine change so that every search sees one consistent graph
+	private volatile Network network = new Network(null, null, null, 0);
 
-	private Map<String, Integer> parktimes;
-	private Map<Integer, Integer> departIntervalTimes;
+	// the generated shortest paths
+	private PathStore results;
+	private boolean offHeapResults = false;
+
+	// the number of paths of the results, the index of the paths using every
+	// connection and the old time and impedance of every changed connection
+	private int resultsNumber;
+	private ShardSpec resultsShard = ShardSpec.ALL;
+	private PathIndex pathIndex;
+	private final Map<Integer, double[]> changes = new LinkedHashMap<>();
+	private boolean timetableLoaded = false;
+
+	// park times keyed by the pair of stations and depart intervals by line, of
+	// the profile in use
+	private LongIntMap parktimes;
+	private LongIntMap departIntervalTimes;
 	private boolean departAlphaOn = false;
 
+	// the impedance of the connections read
+	private ImpedanceFunction impedanceFunction = new TransferPenalty(departAlphaOn ? DEPART_WEIGHT : 1, 1.5);
+
+	/**
+	 * The array view of the stations and connections with one set of weights,
+	 * the algorithm generating the paths on it, the profile whose weights are
+	 * used, null for the input files, and the number of times the network, the
+	 * weights or the engine changed
+	 */
+	private static final class Network {
+		final CompactGraph graph;
+		final KShortestPathEngine engine;
+		final String profile;
+		final long version;
+
+		Network(CompactGraph graph, KShortestPathEngine engine, String profile, long version) {
+			this.graph = graph;
+			this.engine = engine;
+			this.profile = profile;
+			this.version = version;
+		}
+	}
+
 	public Graph() {
 		stations = 0;
 		lines = 0;
@@ -64,8 +124,8 @@ public class Graph {
 			indices[i] = -1;
 
 		transferToID = new HashMap<Integer, ArrayList<Integer>>();
-		parktimes = new HashMap<>();
-		departIntervalTimes = new HashMap<>();
+		parktimes = new LongIntMap(1024);
+		departIntervalTimes = new LongIntMap(MAXLINES);
 	}
 
 	/**
@@ -80,6 +140,7 @@ public class Graph {
 
 		// read in all the depart interval time
 		readDepart();
+		timetableLoaded = true;
 
 		// read in all the information
 		readTransferBase();
@@ -99,6 +160,128 @@ public class Graph {
 
 		// read in the transfer information
 		readTransfer();
+
+		// freeze the network for the searches
+		buildCompact();
+	}
+
+	/**
+	 * Read in the graph from a snapshot, or from the text files when the
+	 * snapshot is missing or any of the files changed since it was written. In
+	 * that case a new snapshot is written.
+	 *
+	 * @param snapshot The snapshot file
+	 */
+	public void readGraph(File snapshot) {
+		byte[] hash = getInputHash();
+		GraphSnapshot cached = GraphSnapshot.read(snapshot, hash);
+		if (cached == null) {
+			readGraph();
+			new GraphSnapshot(tracks, byIndex(), lines).write(snapshot, hash);
+			return;
+		}
+
+		// take the tracks and the stations of the snapshot
+		Track[] loaded = cached.getTracks();
+		for (int i = 0; i < loaded.length && i < MAXLINES; ++i)
+			tracks[i] = loaded[i];
+		for (Station s : cached.getStations()) {
+			indices[s.getID()] = stations;
+			statIDs[stations++] = s.getID();
+			stats[s.getID()] = s;
+		}
+		lines = cached.getLines();
+
+		buildCompact();
+	}
+
+	/**
+	 * @return the hash of the input files and the key of the impedance
+	 *         function, the key of the snapshot and of shard partitions
+	 */
+	public byte[] getInputHash() {
+		return GraphSnapshot.hash(impedanceFunction.key(), inputFiles());
+	}
+
+	/**
+	 * @return the text files the graph is read from
+	 */
+	private static File[] inputFiles() {
+		String[] names = { STATION_INFO, LINE_INFO, SECTION_INFO, TRANSFER_INFO, TRANSFER_BASE, STATION_PARKTIME,
+				LINE_DEPART_INTERVAL_TIME };
+		File[] files = new File[names.length];
+		for (int i = 0; i < names.length; ++i)
+			files[i] = new File(names[i]);
+		return files;
+	}
+
+	/**
+	 * Build the compact array view of the network used by the searches
+	 */
+	private void buildCompact() {
+		CompactGraph compact = new CompactGraph(byIndex(), indices);
+		publish(compact, new MultiDijkstraEngine(compact), null);
+	}
+
+	/**
+	 * Run the following searches on a graph with other weights or engine, the
+	 * searches running keep the network they started on
+	 */
+	private void publish(CompactGraph graph, KShortestPathEngine engine, String profile) {
+		network = new Network(graph, engine, profile, network.version + 1);
+	}
+
+	/**
+	 * @return the stations ordered by their index
+	 */
+	private Station[] byIndex() {
+		Station[] byIndex = new Station[stations];
+		for (int i = 0; i < stations; ++i)
+			byIndex[i] = stats[statIDs[i]];
+		return byIndex;
+	}
+
+	/**
+	 * @return the compact view of the network
+	 */
+	public CompactGraph getCompactGraph() {
+		return network.graph;
+	}
+
+	/**
+	 * @return the engine generating the paths
+	 */
+	public KShortestPathEngine getEngine() {
+		return network.engine;
+	}
+
+	/**
+	 * Select the algorithm used by the following runs, the engine runs on
+	 * getCompactGraph and moves to the new weights of every change
+	 * 
+	 * @param engine the engine to set
+	 */
+	public void setEngine(KShortestPathEngine engine) {
+		if (engine == null)
+			throw new IllegalArgumentException();
+
+		Network n = network;
+		publish(n.graph, engine, n.profile);
+	}
+
+	/**
+	 * @return the name of the profile in use, null for the input files
+	 */
+	public String getProfile() {
+		return network.profile;
+	}
+
+	/**
+	 * @return the number of times the network, its weights or the engine
+	 *         changed, so results of an older version are out of date
+	 */
+	public long getVersion() {
+		return network.version;
 	}
 
 	/**
@@ -134,48 +317,18 @@ public class Graph {
 	 * @param names The names of the stations corresponded to the ID
 	 */
 	private void readStation(TreeMap<Integer, String> names) {
-		BufferedReader fin = null;
-
-		// initialize the reader
-		try {
-			fin = new BufferedReader(new FileReader(new File(STATION_INFO)));
-			fin.readLine();
-			fin.readLine();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		while (true) {
-			String line = null;
-
-			// read in the input
-			try {
-				line = fin.readLine();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-
-			// if no input, break out
-			if (line == null || line.length() == 0)
-				break;
-
-			String[] data = line.split(",");
+		CsvReader fin = new CsvReader(new File(STATION_INFO), 2);
 
+		while (fin.nextRow()) {
 			// parse the data
-			int stationCode = Integer.parseInt(data[0]);
-			String name = data[1];
+			int stationCode = fin.nextInt();
+			String name = fin.nextString();
+			if (stationCode < 0 || stationCode >= MAXSTATION)
+				throw fin.error("Station code out of range " + stationCode);
 
 			// add the name
 			names.put(stationCode, name);
 		}
-
-		try {
-			fin.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
 	}
 
 	/**
@@ -184,89 +337,38 @@ public class Graph {
 	 * @param lineNames The names of the lines
 	 */
 	private void readLine(HashMap<Integer, String> lineNames) {
-		BufferedReader fin = null;
+		CsvReader fin = new CsvReader(new File(LINE_INFO), 1);
 
-		// initialize the reader
-		try {
-			fin = new BufferedReader(new FileReader(new File(LINE_INFO)));
-			fin.readLine();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		while (true) {
-			String line = null;
-
-			// read in the input
-			try {
-				line = fin.readLine();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-
-			// if no input, break out
-			if (line == null || line.length() == 0)
-				break;
-
-			String[] data = line.split(",");
-
-			int lineCode = Integer.parseInt(data[0]);
-			String lineName = data[1];
+		while (fin.nextRow()) {
+			int lineCode = fin.nextInt();
+			String lineName = fin.nextString();
+			if (lineCode < 0 || lineCode >= MAXLINES)
+				throw fin.error("Line code out of range " + lineCode);
 
 			lineNames.put(lineCode, lineName);
 		}
-
-		try {
-			fin.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
 	}
 
 	/**
 	 * Read in the data for the section
 	 */
 	private void readSection() {
-		BufferedReader fin = null;
-
-		// initialize the reader
-		try {
-			fin = new BufferedReader(new FileReader(new File(SECTION_INFO)));
-			fin.readLine();
-			fin.readLine();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		while (true) {
-			String line = null;
-
-			// read in the input
-			try {
-				line = fin.readLine();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-
-			// if no input, break out
-			if (line == null || line.length() == 0)
-				break;
-
-			String[] data = line.split(",");
+		CsvReader fin = new CsvReader(new File(SECTION_INFO), 2);
 
+		while (fin.nextRow()) {
 			// parse the data
-			int lineID = Integer.parseInt(data[0]);
-			int s1 = Integer.parseInt(data[1]);
-			int s2 = Integer.parseInt(data[2]);
-			int dist = Integer.parseInt(data[3]);
-			int time = Integer.parseInt(data[4]);
-			int dir = Integer.parseInt(data[5]);
+			int lineID = fin.nextInt();
+			int s1 = fin.nextInt();
+			int s2 = fin.nextInt();
+			int dist = fin.nextInt();
+			int time = fin.nextInt();
+			int dir = fin.nextInt();
 
 			// check that the stations are valid
+			if (station(s1) == null || station(s2) == null)
+				throw fin.error("Unknown station " + (station(s1) == null ? s1 : s2));
+			if (lineID < 0 || lineID >= MAXLINES || tracks[lineID] == null)
+				throw fin.error("Unknown line " + lineID);
 			if (stats[s1].getLine() != null && stats[s1].getLine().getID() != lineID)
 				throw new IllegalArgumentException("Input first station is conflicting.");
 			if (stats[s2].getLine() != null && stats[s2].getLine().getID() != lineID)
@@ -277,74 +379,44 @@ public class Graph {
 			stats[s2].setLine(tracks[lineID]);
 
 			// create a new Line
-			int traveltime = time + (parktimes.get(s1 + "-" + s2) == null ? 0 : parktimes.get(s1 + "-" + s2));
-			double impedance = traveltime;
+			int traveltime = time + parktimes.get(LongIntMap.pair(s1, s2), 0);
+			double impedance = impedanceFunction.section(traveltime);
 			Line connect = new Line(stats[s1], stats[s2], tracks[lineID], lines++, dir, dist, traveltime, impedance);
 //			System.out.printf("s1:%s-s2:%s\n", s1, s2);
 			stats[s1].addConnection(connect);
 			stats[s2].addConnection(connect);
 		}
+	}
 
-		try {
-			fin.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+	/**
+	 * @param code Station ID
+	 * @return The station, null if there is none
+	 */
+	private Station station(int code) {
+		return code >= 0 && code < MAXSTATION ? stats[code] : null;
 	}
 
 	/**
 	 * Reads in the data for the walk times between the stations
-	 * 
-	 * @param encode
-	 * @param decode
 	 */
 	private void readTransfer() {
-		Map<Integer, Integer> specials = new HashMap<>();
-		specials.put(1001, 9069);
-		specials.put(9069, 1001);
-		specials.put(1043, 9021);
-		specials.put(9021, 1043);
-		specials.put(467, 9319);
-		specials.put(9319, 467);
-
-		BufferedReader fin = null;
-		final double departWeight = 0.5;
-
-		// initialize the reader
-		try {
-			fin = new BufferedReader(new FileReader(new File(TRANSFER_INFO)));
-			fin.readLine();
-			fin.readLine();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		while (true) {
-			String line = null;
-
-			// read in the input
-			try {
-				line = fin.readLine();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-
-			// if no input, break out
-			if (line == null || line.length() == 0)
-				break;
+		CsvReader fin = new CsvReader(new File(TRANSFER_INFO), 2);
 
+		while (fin.nextRow()) {
 			// extract the station code and transfer code
-			String[] data = line.split(",");
-			int tsCode = Integer.parseInt(data[0]);
-			int start = Integer.parseInt(data[1]);
-			int end = Integer.parseInt(data[2]);
-			int time = Integer.parseInt(data[3]);
+			int tsCode = fin.nextInt();
+			int start = fin.nextInt();
+			int end = fin.nextInt();
+			int time = fin.nextInt();
+
+			if (transferToID.get(tsCode) == null)
+				throw fin.error("Unknown transfer station " + tsCode);
 
 			// find the start and end station
 			Station startStation = null, endStation = null;
 			for (int code : transferToID.get(tsCode)) {
+				if (station(code) == null || station(code).getLine() == null)
+					throw fin.error("Transfer station " + tsCode + " has a station not on any line " + code);
 				if ((stats[code].getLine().getID()) == start) {
 					startStation = stats[code];
 					startStation.setTsCode(tsCode);
@@ -356,29 +428,46 @@ public class Graph {
 					endStation.setTsCode(tsCode);
 				}
 			}
+			if (startStation == null || endStation == null)
+				throw fin.error("Transfer station " + tsCode + " is not on line " + (startStation == null ? start : end));
+			if (!departIntervalTimes.containsKey(end))
+				throw fin.error("No depart interval time for line " + end);
 
 			// make the new line
-			int traveltime;
-			double impedance;
-			if (specials.get(startStation.getID()) != null
-					&& specials.get(startStation.getID()) == endStation.getID()) {
-				traveltime = 0;
-				impedance = 0;
-			} else {
-				traveltime = time + (int) (departIntervalTimes.get(end) * departWeight);
-				impedance = (time + departIntervalTimes.get(end) * (departAlphaOn ? departWeight : 1)) * 1.5;
-			}
-//			System.out.printf("end:%d %d\n", end, departIntervalTimes.get(end));
+			int traveltime = transferTime(startStation, endStation, time, end, departIntervalTimes);
+			double impedance = transferImpedance(startStation, endStation, time, end, departIntervalTimes);
+//			System.out.printf("end:%d %d\n", end, departIntervalTimes.get(end, 0));
 			Line connect = new Line(startStation, endStation, null, lines++, -1, 0, traveltime, impedance);
 			startStation.addConnection(connect);
 			endStation.addConnection(connect);
 		}
+	}
 
-		try {
-			fin.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+	/**
+	 * Checks if a transfer is between the two parts of the same station
+	 */
+	private static boolean isSpecial(Station start, Station end) {
+		Integer other = SPECIALS.get(start.getID());
+		return other != null && other == end.getID();
+	}
+
+	/**
+	 * The time of a transfer: the walk plus half of the depart interval of the
+	 * line transferred to
+	 */
+	private int transferTime(Station start, Station end, int walkTime, int endLine, LongIntMap departs) {
+		if (isSpecial(start, end))
+			return 0;
+		return walkTime + (int) (departs.get(endLine, 0) * DEPART_WEIGHT);
+	}
+
+	/**
+	 * The impedance of a transfer
+	 */
+	private double transferImpedance(Station start, Station end, int walkTime, int endLine, LongIntMap departs) {
+		if (isSpecial(start, end))
+			return 0;
+		return impedanceFunction.transfer(walkTime, departs.get(endLine, 0));
 	}
 
 	/**
@@ -386,37 +475,12 @@ public class Graph {
 	 * station
 	 */
 	private void readTransferBase() {
-		BufferedReader fin = null;
-
-		// initialize the reader
-		try {
-			fin = new BufferedReader(new FileReader(new File(TRANSFER_BASE)));
-			fin.readLine();
-			fin.readLine();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		while (true) {
-			String line = null;
-
-			// read in the input
-			try {
-				line = fin.readLine();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-
-			// if no input, break out
-			if (line == null || line.length() == 0)
-				break;
+		CsvReader fin = new CsvReader(new File(TRANSFER_BASE), 2);
 
+		while (fin.nextRow()) {
 			// extract the station code and transfer code
-			String[] data = line.split(",");
-			int station = Integer.parseInt(data[1]);
-			int transferCode = Integer.parseInt(data[0]);
+			int transferCode = fin.nextInt();
+			int station = fin.nextInt();
 
 			// put the code in
 			if (transferToID.get(transferCode) == null)
@@ -425,78 +489,264 @@ public class Graph {
 			// add the station
 			transferToID.get(transferCode).add(station);
 		}
-
-		try {
-			fin.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
 	}
 
+	/**
+	 * Read the park time of the trains between two stations
+	 */
 	private void readPark() {
-		BufferedReader fin = null;
-		try {
-			fin = new BufferedReader(new FileReader(new File(STATION_PARKTIME)));
-			fin.readLine();
-			fin.readLine();
-			while (true) {
-				String line = null;
-				line = fin.readLine();
-				if (line == null || line.length() == 0)
-					break;
-
-				String[] data = line.split(",");
-				int start = Integer.parseInt(data[1]);// start station
-				int direct = Integer.parseInt(data[2]);// direct
-				int stop = Integer.parseInt(data[3]);// stop station
-				int parktime = Integer.parseInt(data[4]);// parktime
-				parktimes.put(start + "-" + stop, parktime);
-			}
-		} catch (FileNotFoundException e1) {
-			e1.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
+		parktimes = readParkTimes(new File(STATION_PARKTIME));
+	}
+
+	/**
+	 * @param file A park time file
+	 * @return The park times keyed by the pair of stations
+	 */
+	private static LongIntMap readParkTimes(File file) {
+		LongIntMap parktimes = new LongIntMap(1024);
+		CsvReader fin = new CsvReader(file, 2);
+
+		while (fin.nextRow()) {
+			fin.skip();// line
+			int start = fin.nextInt();// start station
+			fin.skip();// direct
+			int stop = fin.nextInt();// stop station
+			int parktime = fin.nextInt();// parktime
+			parktimes.put(LongIntMap.pair(start, stop), parktime);
 		}
+		return parktimes;
 	}
 
+	/**
+	 * Read the depart interval time of every line
+	 */
 	private void readDepart() {
-		BufferedReader fin = null;
+		departIntervalTimes = readDepartTimes(new File(LINE_DEPART_INTERVAL_TIME));
+	}
 
-		// initialize the reader
-		try {
-			fin = new BufferedReader(new FileReader(new File(LINE_DEPART_INTERVAL_TIME)));
-			fin.readLine();
-			fin.readLine();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
+	/**
+	 * @param file A depart interval file
+	 * @return The depart intervals in seconds keyed by line, the direction is
+	 *         not used
+	 */
+	private static LongIntMap readDepartTimes(File file) {
+		LongIntMap departIntervalTimes = new LongIntMap(MAXLINES);
+		CsvReader fin = new CsvReader(file, 2);
+
+		while (fin.nextRow()) {
+			// extract the line code and the interval
+			int lineCode = fin.nextInt();
+			fin.skip();// direction
+			int departIntervalTime = fin.nextInt();
+
+			// add the depart
+			departIntervalTimes.put(lineCode, departIntervalTime * 60);
 		}
+		return departIntervalTimes;
+	}
 
-		while (true) {
-			String line = null;
+	/**
+	 * @param file A section file
+	 * @return The running times keyed by the pair of stations
+	 */
+	private static LongIntMap readRunningTimes(File file) {
+		LongIntMap runningTimes = new LongIntMap(1024);
+		CsvReader fin = new CsvReader(file, 2);
+
+		while (fin.nextRow()) {
+			fin.skip();// line
+			int s1 = fin.nextInt();
+			int s2 = fin.nextInt();
+			fin.skip();// distance
+			int time = fin.nextInt();
+			runningTimes.put(LongIntMap.pair(s1, s2), time);
+		}
+		return runningTimes;
+	}
 
-			// read in the input
-			try {
-				line = fin.readLine();
-			} catch (IOException e) {
-				e.printStackTrace();
+	/**
+	 * @param file A transfer walk time file
+	 * @return The walk times keyed by the pair of stations
+	 */
+	private LongIntMap readWalkTimes(File file) {
+		// the station of every transfer station code and line
+		LongIntMap parts = new LongIntMap(stations);
+		for (int i = 0; i < stations; ++i) {
+			Station s = stats[statIDs[i]];
+			if (s.getTsCode() != 0 && s.getLine() != null)
+				parts.put(LongIntMap.pair(s.getTsCode(), s.getLine().getID()), s.getID());
+		}
+
+		LongIntMap walkTimes = new LongIntMap(1024);
+		CsvReader fin = new CsvReader(file, 2);
+		while (fin.nextRow()) {
+			int tsCode = fin.nextInt();
+			int start = fin.nextInt();
+			int end = fin.nextInt();
+			int time = fin.nextInt();
+
+			int startID = parts.get(LongIntMap.pair(tsCode, start), -1);
+			int endID = parts.get(LongIntMap.pair(tsCode, end), -1);
+			if (startID < 0 || endID < 0)
+				throw fin.error("Transfer station " + tsCode + " is not on line " + (startID < 0 ? start : end));
+			walkTimes.put(LongIntMap.pair(startID, endID), time);
+		}
+		return walkTimes;
+	}
+
+	/**
+	 * The file of a service profile, the base file if the profile has none
+	 *
+	 * @param base    The base file name
+	 * @param profile The profile name, null for the base files
+	 * @return The file to read
+	 */
+	public static File profileFile(String base, String profile) {
+		if (profile != null) {
+			File f = new File(base.replace(".txt", "_" + profile + ".txt"));
+			if (f.isFile())
+				return f;
+		}
+		return new File(base);
+	}
+
+	/**
+	 * Read the weights of a service profile. The profile takes its running
+	 * times, transfer walk times, park times and depart intervals from the
+	 * input files with "_" and its name before ".txt", and every file it does
+	 * not have from the base input. The network itself is the one read by
+	 * readGraph.
+	 *
+	 * @param name The profile name, null for the base input
+	 * @return The profile
+	 */
+	public ServiceProfile readProfile(String name) {
+		LongIntMap park = readParkTimes(profileFile(STATION_PARKTIME, name));
+		LongIntMap depart = readDepartTimes(profileFile(LINE_DEPART_INTERVAL_TIME, name));
+		LongIntMap running = readRunningTimes(profileFile(SECTION_INFO, name));
+		LongIntMap walks = readWalkTimes(profileFile(TRANSFER_INFO, name));
+
+		CompactGraph compact = network.graph;
+		int[] times = new int[compact.getEdges()];
+		int[] walkTimes = new int[compact.getEdges()];
+		int[] departIntervals = new int[compact.getEdges()];
+		boolean[] transfers = new boolean[compact.getEdges()];
+		for (int e = 0; e < compact.getEdges(); ++e) {
+			Station start = compact.station(compact.source(e));
+			Station end = compact.station(compact.target(e));
+			long key = LongIntMap.pair(start.getID(), end.getID());
+
+			if (compact.isTransfer(e)) {
+				int endLine = end.getLine().getID();
+				if (!walks.containsKey(key))
+					throw new IllegalArgumentException("Profile " + name + " has no walk time " + key(start, end));
+				if (!depart.containsKey(endLine))
+					throw new IllegalArgumentException("Profile " + name + " has no depart interval time for line " + endLine);
+				times[e] = transferTime(start, end, walks.get(key, 0), endLine, depart);
+				transfers[e] = true;
+				walkTimes[e] = isSpecial(start, end) ? -1 : walks.get(key, 0);
+				departIntervals[e] = depart.get(endLine, 0);
+			} else {
+				if (!running.containsKey(key))
+					throw new IllegalArgumentException("Profile " + name + " has no section " + key(start, end));
+				times[e] = running.get(key, 0) + park.get(key, 0);
 			}
+		}
+		return new ServiceProfile(name, times, walkTimes, departIntervals, transfers, park, depart, impedanceFunction);
+	}
 
-			// if no input, break out
-			if (line == null || line.length() == 0)
-				break;
+	/**
+	 * @return the impedance function of the connections read
+	 */
+	public ImpedanceFunction getImpedanceFunction() {
+		return impedanceFunction;
+	}
 
-			// extract the station code and transfer code
-			String[] data = line.split(",");
-			int lineCode = Integer.parseInt(data[0]);
-			int departIntervalTime = Integer.parseInt(data[2]);
+	/**
+	 * Select the impedance function of the connections read by the following
+	 * readGraph, readProfile and changes
+	 *
+	 * @param impedanceFunction the impedance function to set
+	 */
+	public void setImpedanceFunction(ImpedanceFunction impedanceFunction) {
+		if (impedanceFunction == null)
+			throw new IllegalArgumentException();
 
-			// add the depart
-			departIntervalTimes.put(lineCode, departIntervalTime * 60);
+		this.impedanceFunction = impedanceFunction;
+	}
+
+	/**
+	 * Generate the paths of several profiles at once, for example of one
+	 * profile weighed with a grid of impedance functions. Every profile runs on
+	 * its own copy of the weights with a MultiDijkstraEngine and writes to its
+	 * own sink, the profiles are spread over the threads.
+	 *
+	 * @param profiles The profiles
+	 * @param number   Generate all the shortest "number" paths
+	 * @param threads  Number of worker threads
+	 * @param sinks    Gives the sink of every profile, closed when its paths
+	 *                 are written
+	 */
+	public void streamProfiles(List<ServiceProfile> profiles, int number, int threads,
+			Function<ServiceProfile, PathSink> sinks) {
+		if (threads < 1)
+			throw new IllegalArgumentException("threads must be positive");
+
+		CompactGraph compact = network.graph;
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (ServiceProfile profile : profiles) {
+			CompactGraph weighed = compact.withWeights(profile.getTimes(), profile.getImpedances());
+			tasks.add(() -> {
+				KShortestPathEngine search = new MultiDijkstraEngine(weighed);
+				try (PathSink sink = sinks.apply(profile)) {
+					for (int i = 0; i < stations; ++i)
+						sink.accept(i, search.search(i, number));
+				}
+				return null;
+			});
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			for (Future<Void> f : pool.invokeAll(tasks))
+				f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Path generation was interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Path generation failed", e.getCause());
+		} finally {
+			pool.shutdown();
 		}
 	}
 
+	private static String key(Station start, Station end) {
+		return start.getID() + "-" + end.getID();
+	}
+
+	/**
+	 * Run the following searches on the weights of a service profile. The
+	 * results of getPaths are dropped since they belong to the old weights, and
+	 * the following changes start from the park times and depart intervals of
+	 * the profile.
+	 *
+	 * @param profile The profile
+	 */
+	public void useProfile(ServiceProfile profile) {
+		Network n = network;
+		if (profile.getTimes().length != n.graph.getEdges())
+			throw new IllegalArgumentException("Profile " + profile.getName() + " is for another network.");
+
+		results = null;
+		pathIndex = null;
+		changes.clear();
+		parktimes = profile.getParkTimes();
+		departIntervalTimes = profile.getDepartTimes();
+		timetableLoaded = true;
+		CompactGraph weighed = n.graph.withWeights(profile.getTimes(), profile.getImpedances());
+		publish(weighed, n.engine.withGraph(weighed), profile.getName());
+	}
+
 	/**
 	 * @return the stations
 	 */
@@ -510,274 +760,519 @@ public class Graph {
 	 * @param number Generate all the shortest "number" paths
 	 */
 	public void getPaths(int number) {
-		// initialize paths and pathcounts
-		paths = new Path[stations][stations][number];
-		pathCounts = new int[stations][stations];// 0
+		getPaths(number, 1);
+	}
 
-		PrintWriter fout = null;
+	/**
+	 * Generate all shortest paths, spreading the origins over a work-stealing
+	 * pool. Every origin writes only its own row of the results, so the output is
+	 * identical to the sequential run.
+	 * 
+	 * @param number  Generate all the shortest "number" paths
+	 * @param threads Number of worker threads, 1 runs on the calling thread
+	 */
+	public void getPaths(int number, int threads) {
+		getPaths(number, threads, ShardSpec.ALL);
+	}
+
+	/**
+	 * Generate the shortest paths of the origins of one shard, the other
+	 * origins have no paths. The shards of a run can be generated by separate
+	 * processes, written with writeShard and merged with ShardMerge.
+	 * 
+	 * @param number  Generate all the shortest "number" paths
+	 * @param threads Number of worker threads, 1 runs on the calling thread
+	 * @param shard   The origins generated
+	 */
+	public void getPaths(int number, int threads, ShardSpec shard) {
+		if (threads < 1)
+			throw new IllegalArgumentException("threads must be positive");
+
+		// initialize the result store
+		Network n = network;
+		results = new PathStore(n.graph, offHeapResults);
+		resultsNumber = number;
+		resultsShard = shard;
+		pathIndex = null;
+		changes.clear();
+
+		if (threads == 1) {
+			for (int i : shard.origins(stations)) {
+				searchOrigin(n.engine, i, number);
+			}
+			return;
+		}
+
+		List<Integer> origins = new ArrayList<>();
+		for (int start : originsByCost())
+			if (shard.contains(start))
+				origins.add(start);
+		searchOrigins(n.engine, origins, number, threads);
+	}
+
+	/**
+	 * Search some origins on a work-stealing pool
+	 * 
+	 * @param engine  The engine searching
+	 * @param origins The origins, the most expensive first
+	 * @param number  The number of paths
+	 * @param threads Number of worker threads
+	 */
+	private void searchOrigins(KShortestPathEngine engine, List<Integer> origins, int number, int threads) {
+		// start the most expensive origins first so no worker is left with a long tail
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (int start : origins) {
+			tasks.add(() -> {
+				searchOrigin(engine, start, number);
+				return null;
+			});
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
 		try {
-			fout = new PrintWriter(new File("multiDijkstra_process.txt"));
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+			for (Future<Void> f : pool.invokeAll(tasks))
+				f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Path generation was interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Path generation failed", e.getCause());
+		} finally {
+			pool.shutdown();
 		}
+	}
 
-		for (int i = 0; i < stations; ++i) {
-			multiDijkstra(i, number, fout);
-		}
-
-//		int ii = 0, jj = 0, k = 0;
-//		for (Path[][] p2 : paths) {
-//			fout.printf("K:%d\n", k);
-//			for (Path[] p1 : p2) {
-//				fout.printf("O:%d\n", jj++);
-//				for (Path p : p1) {
-//					fout.printf("D:%d", ii++);
-//					if (p != null)
-//						for (Station s : p.getStations()) {
-//							if (s != null)
-//								fout.printf("|%d", s.getID());
-//						}
-//					fout.println();
-//				}
-//			}
-//			fout.println();
-//		}
-		fout.close();
+	/**
+	 * Generate all shortest paths and hand every origin's paths to the sink as
+	 * soon as they are ready, without keeping them. The origins are delivered in
+	 * index order on the calling thread and at most twice as many origins as
+	 * threads are in flight, so memory stays flat for any network size and K.
+	 * 
+	 * @param number  Generate all the shortest "number" paths
+	 * @param threads Number of worker threads, 1 runs on the calling thread
+	 * @param sink    Receives the paths of every origin
+	 */
+	public void streamPaths(int number, int threads, PathSink sink) {
+		streamPaths(number, threads, ShardSpec.ALL, sink);
 	}
 
 	/**
-	 * Get all the shortest paths starting from a start
+	 * Generate the shortest paths of the origins of one shard and hand them to
+	 * the sink in index order, see streamPaths(int, int, PathSink)
 	 * 
+	 * @param number  Generate all the shortest "number" paths
+	 * @param threads Number of worker threads, 1 runs on the calling thread
+	 * @param shard   The origins generated
+	 * @param sink    Receives the paths of every origin of the shard
+	 */
+	public void streamPaths(int number, int threads, ShardSpec shard, PathSink sink) {
+		if (threads < 1)
+			throw new IllegalArgumentException("threads must be positive");
+
+		KShortestPathEngine engine = network.engine;
+		int[] origins = shard.origins(stations);
+		if (threads == 1) {
+			for (int i : origins)
+				sink.accept(i, engine.search(i, number));
+			return;
+		}
+
+		int window = threads * 2;
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		ArrayDeque<Future<Path[][]>> pending = new ArrayDeque<>();
+		try {
+			int next = 0;
+			for (int i : origins) {
+				// keep the window full
+				while (next < origins.length && pending.size() < window) {
+					int start = origins[next++];
+					pending.add(pool.submit(() -> engine.search(start, number)));
+				}
+
+				// wait for the next origin in order and release it
+				sink.accept(i, pending.poll().get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Path generation was interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Path generation failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Generate the paths once for the largest of several numbers of paths and
+	 * hand the first paths of every OD pair to a sink per number, for example
+	 * the 3, 5 and 30 path choice sets in one run. The first k paths of the
+	 * largest search can be shorter than the paths of a separate run with k,
+	 * where the stations on the way keep only k paths each.
+	 * 
+	 * @param numbers The numbers of paths
+	 * @param threads Number of worker threads, 1 runs on the calling thread
+	 * @param sinks   Gives the sink of every number of paths, closed when all
+	 *                the paths are written
+	 */
+	public void streamPaths(int[] numbers, int threads, IntFunction<PathSink> sinks) {
+		if (numbers.length == 0)
+			throw new IllegalArgumentException("No number of paths given.");
+
+		int largest = 0;
+		PathSink[] levels = new PathSink[numbers.length];
+		for (int i = 0; i < numbers.length; ++i) {
+			largest = Math.max(largest, numbers[i]);
+			try {
+				levels[i] = sinks.apply(numbers[i]);
+			} catch (RuntimeException e) {
+				// close the sinks already opened
+				for (int j = 0; j < i; ++j)
+					levels[j].close();
+				throw e;
+			}
+		}
+
+		try (PathSink sink = new RankPrefixSink(numbers, levels)) {
+			streamPaths(largest, threads, sink);
+		}
+	}
+
+	/**
+	 * Orders the origins by an estimate of their search cost, most expensive
+	 * first. The estimate is the sum of the hop distances to every reachable
+	 * station, since long paths are the ones that get copied the most.
+	 * 
+	 * @return The origin indices sorted by decreasing cost
+	 */
+	private List<Integer> originsByCost() {
+		CompactGraph compact = network.graph;
+		long[] cost = new long[stations];
+		int[] hops = new int[stations];
+		int[] queue = new int[stations];
+
+		for (int start = 0; start < stations; ++start) {
+			Arrays.fill(hops, -1);
+			int head = 0, tail = 0;
+			hops[start] = 0;
+			queue[tail++] = start;
+
+			// breadth first search over the station graph
+			while (head < tail) {
+				int cur = queue[head++];
+				cost[start] += hops[cur];
+				for (int e = compact.firstEdge(cur); e < compact.endEdge(cur); ++e) {
+					int idx = compact.target(e);
+					if (hops[idx] < 0) {
+						hops[idx] = hops[cur] + 1;
+						queue[tail++] = idx;
+					}
+				}
+			}
+		}
+
+		List<Integer> order = new ArrayList<>();
+		for (int i = 0; i < stations; ++i)
+			order.add(i);
+		order.sort((a, b) -> Long.compare(cost[b], cost[a]));
+		return order;
+	}
+
+	/**
+	 * Get all the shortest paths starting from a start with the engine
+	 * 
+	 * @param engine The engine searching
 	 * @param start  The starting node
 	 * @param number The number of paths
 	 */
-	private void multiDijkstra(int start, int number, PrintWriter fout) {
+	private void searchOrigin(KShortestPathEngine engine, int start, int number) {
+		results.accept(start, engine.search(start, number));
+	}
+
+	/**
+	 * @return the paths generated by the last getPaths
+	 */
+	public PathStore getResults() {
+		return results;
+	}
 
-		ArrayList<Line> lines = new ArrayList<>();
-		// set up the source
-		Station source = stats[statIDs[start]];
-//		System.out.printf("source station:%d\n", source.getID());
+	/**
+	 * Change the running time of a section, the park time is kept
+	 * 
+	 * @param s1          ID of the first station
+	 * @param s2          ID of the second station
+	 * @param runningTime The new running time
+	 */
+	public void changeSection(int s1, int s2, int runningTime) {
+		loadTimetable();
+		Line l = connection(s1, s2);
+		if (l.getDir() == -1)
+			throw new IllegalArgumentException("Not a section " + s1 + "-" + s2);
+
+		int traveltime = runningTime + parktimes.get(LongIntMap.pair(s1, s2), 0);
+		changeConnection(l, traveltime, impedanceFunction.section(traveltime));
+	}
 
-//		fout.printf("source station:%d\n", source.getID());
+	/**
+	 * Change the park time of the trains between two stations
+	 * 
+	 * @param s1       ID of the first station
+	 * @param s2       ID of the second station
+	 * @param parkTime The new park time
+	 */
+	public void changeParkTime(int s1, int s2, int parkTime) {
+		loadTimetable();
+		int old = parktimes.get(LongIntMap.pair(s1, s2), 0);
+		parktimes.put(LongIntMap.pair(s1, s2), parkTime);
+
+		// park times of stations without a section between them are only kept
+		Station start = station(s1);
+		Station end = station(s2);
+		if (start == null || end == null || start.getConnection(end) == null || start.getConnection(end).getDir() == -1)
+			return;
+
+		Line l = start.getConnection(end);
+		CompactGraph compact = network.graph;
+		int traveltime = compact.time(compact.findEdge(indices[s1], indices[s2])) - old + parkTime;
+		changeConnection(l, traveltime, impedanceFunction.section(traveltime));
+	}
 
-		// create the priority queue and the counts
-		PriorityQueue<Path> enqueue = new PriorityQueue<Path>();
+	/**
+	 * Change the walk time of a transfer
+	 * 
+	 * @param tsCode    The transfer station code
+	 * @param startLine ID of the line transferred from
+	 * @param endLine   ID of the line transferred to
+	 * @param walkTime  The new walk time
+	 */
+	public void changeTransfer(int tsCode, int startLine, int endLine, int walkTime) {
+		loadTimetable();
+		Station start = null, end = null;
+		for (int i = 0; i < stations; ++i) {
+			Station s = stats[statIDs[i]];
+			if (s.getTsCode() == tsCode && s.getLine() != null && s.getLine().getID() == startLine)
+				start = s;
+			if (s.getTsCode() == tsCode && s.getLine() != null && s.getLine().getID() == endLine)
+				end = s;
+		}
+		if (start == null || end == null)
+			throw new IllegalArgumentException("No transfer at " + tsCode + " from line " + startLine + " to " + endLine);
 
-		// create the first path
-		Path begin = new Path();
-		begin.addStation(source);
+		Line l = connection(start.getID(), end.getID());
+		changeConnection(l, transferTime(start, end, walkTime, endLine, departIntervalTimes),
+				transferImpedance(start, end, walkTime, endLine, departIntervalTimes));
+	}
 
-		// add the first paths
-		enqueue.add(begin);
+	/**
+	 * @return The connection from a station to another
+	 */
+	private Line connection(int s1, int s2) {
+		Station start = station(s1);
+		Station end = station(s2);
+		if (start == null || end == null || start.getConnection(end) == null)
+			throw new IllegalArgumentException("No connection " + s1 + "-" + s2);
+		return start.getConnection(end);
+	}
 
-		// iterate through possible paths
-		while (!enqueue.isEmpty()) {
+	/**
+	 * Set the new weights of a connection on a copy of the graph and remember
+	 * its old ones
+	 */
+	private void changeConnection(Line l, int time, double impedance) {
+		Network n = network;
+		int e = n.graph.findEdge(indices[l.getStart().getID()], indices[l.getEnd().getID()]);
+		if (!changes.containsKey(e))
+			changes.put(e, new double[] { n.graph.time(e), n.graph.impedance(e) });
+
+		CompactGraph changed = n.graph.withWeight(e, time, impedance);
+		publish(changed, n.engine.withGraph(changed), n.profile);
+	}
 
-//			fout.println("enqueue.size:" + enqueue.size());
+	/**
+	 * Read the park and depart interval times, which a graph loaded from a
+	 * snapshot does not have
+	 */
+	private void loadTimetable() {
+		if (timetableLoaded)
+			return;
+		readPark();
+		readDepart();
+		timetableLoaded = true;
+	}
 
-			// get the best path and last station Prev
-			Path best = enqueue.poll();
-			Station last = best.getEnd();
-			int end = indices[last.getID()];
+	/**
+	 * Update the paths of getPaths after changes of sections, park times or
+	 * transfers, searching again only the origins whose paths could change:
+	 * <ul>
+	 * <li>a connection that got slower changes the origins of the paths using
+	 * it, found through a PathIndex</li>
+	 * <li>a connection that got faster changes an origin if a path through it
+	 * could beat the last path to some station, by the lower bounds from the
+	 * origin to the connection and from the connection to the station</li>
+	 * </ul>
+	 * The paths are those of a full run with the new weights, except that paths
+	 * of exactly the same impedance and length may be ranked differently. This
+	 * holds for engines returning the first "number" paths of every station,
+	 * not for an engine with SearchBounds.
+	 * 
+	 * @param threads Number of worker threads
+	 * @return The number of origins searched again
+	 */
+	public int recompute(int threads) {
+		if (results == null)
+			throw new IllegalStateException("No paths to update, run getPaths first.");
+		if (threads < 1)
+			throw new IllegalArgumentException("threads must be positive");
+
+		KShortestPathEngine engine = network.engine;
+		boolean[] affected = affectedOrigins();
+		List<Integer> origins = new ArrayList<>();
+		for (int start : originsByCost())
+			if (affected[start] && resultsShard.contains(start))
+				origins.add(start);
+
+		if (threads == 1) {
+			for (int start : origins)
+				searchOrigin(engine, start, resultsNumber);
+		} else if (!origins.isEmpty()) {
+			searchOrigins(engine, origins, resultsNumber, threads);
+		}
 
-			if (pathCounts[start][end] == 1) {
-//				fout.printf("K==1 start,%d,end,%d\n", start, end);
-			}
+		changes.clear();
+		pathIndex = null;
+		return origins.size();
+	}
 
-			// if enough paths have been found continue
-//			fout.printf("start:%d,station:%d,end:%d,station:%d,K:%d\n", start, statIDs[start], end, last.getID(),
-//					pathCounts[start][end]);
-			if (pathCounts[start][end] >= number)
-				continue;
-
-//			for (Station s : last.getLines().keySet()) {
-//				System.out.println(last.getID() + " " + last.getLines().get(s).getStart().getID());
-//			}
-
-			// ---
-			Path tPath = new Path(best);
-			paths[start][end][pathCounts[start][end]++] = tPath;
-
-			// skip start when its transfer
-			boolean isTrans = false;
-			int time = 0;
-			double impedance = 0;
-			if (best.getStations().size() == 2) {
-				Station prev = best.getPrev(last);
-				if (prev.getConnection(last).getDir() == -1) {
-					isTrans = true;
-				}
-			}
-			if (best.getStations().size() > 2) {
-				Station prev = best.getPrev(last);
-				if (prev.getConnection(last).getDir() == -1) {
-					isTrans = true;
-					time = prev.getConnection(last).getTime();
-					best.setDist(best.getDist() + time);
-					impedance = prev.getConnection(last).getImpedance();
-					best.setImpedance(best.getImpedance() + impedance);
+	/**
+	 * The origins whose paths could change with the pending changes
+	 */
+	private boolean[] affectedOrigins() {
+		if (pathIndex == null)
+			pathIndex = new PathIndex(results);
+
+		CompactGraph compact = network.graph;
+		boolean[] affected = new boolean[stations];
+		for (Map.Entry<Integer, double[]> change : changes.entrySet()) {
+			int e = change.getKey();
+			double oldImpedance = change.getValue()[1];
+			double impedance = compact.impedance(e);
+
+			if (impedance > oldImpedance || impedance == oldImpedance && compact.time(e) != change.getValue()[0]) {
+				pathIndex.markOrigins(e, affected);
+			} else if (impedance < oldImpedance) {
+				// a path through the connection reaches u without passing v and goes
+				// on from v without passing u, a transfer is free at the ends of a path
+				int u = compact.source(e);
+				int v = compact.target(e);
+				double[] after = LowerBounds.fromSource(compact, v, u);
+				double weight = compact.isTransfer(e) ? 0 : impedance;
+				for (int origin = 0; origin < stations; ++origin) {
+					if (affected[origin] || origin == v)
+						continue;
+					double before = LowerBounds.fromSource(compact, origin, v)[u];
+					if (before == Double.POSITIVE_INFINITY)
+						continue;
+					for (int end = 0; end < stations && !affected[origin]; ++end)
+						if (end != origin && after[end] != Double.POSITIVE_INFINITY
+								&& before + weight + after[end] <= lastImpedance(origin, end))
+							affected[origin] = true;
 				}
-
 			}
-			// ---
-
-			// add the path
-//			paths[start][end][pathCounts[start][end]++] = best;
-			// iterate through the neighboring nodes
-//			System.out.println("Neighbors:" + last.getNeighbors().size());
-			boolean isDouble = false;
-			for (Station next : last.getNeighbors()) {
-
-//				fout.printf("station %d neighbors:%d\n", last.getID(), next.getID());
-//				if (source.getID() == 118 && (last.getID() == 119 || next.getID() == 553)) {
-				// System.out.printf("station %d neighbors:%d\n", last.getID(), next.getID());
-//				}
-				// if it creates a cycle continue
-				if (best.getStations().contains(next))
-					continue;
-
-				// create the new path
-				Path newPath = new Path(best);
-
-				Line connect = last.getConnection(next);
-				// ---
-				if (connect.getDir() == -1 && isTrans) {
-//					newPath.setDist(newPath.getDist() - time);
-//					newPath.setImpedance(newPath.getImpedance() - impedance);
-					continue;
-				}
-				// ---
+		}
+		return affected;
+	}
 
-				//
-				int before = newPath.getDist();
-				if (connect.getDir() == -1) {
+	/**
+	 * @return The impedance a new path must not exceed to be among the stored
+	 *         paths between two stations
+	 */
+	private double lastImpedance(int origin, int end) {
+		int count = results.count(origin, end);
+		if (count < resultsNumber)
+			return Double.POSITIVE_INFINITY;
+		return results.impedance(results.path(origin, end, count - 1));
+	}
 
-				} else {
-					newPath.addDist(connect.getTime());
-					newPath.addImpedance(connect.getImpedance());
-				}
-				newPath.addStation(next, connect);
-				int after = newPath.getDist();
-				if (before == after) {
-//					System.out.println(before + "-" + after);
-				}
-				// add the path
+	/**
+	 * Keep the routes generated by getPaths outside the heap
+	 * 
+	 * @param offHeapResults the offHeapResults to set
+	 */
+	public void setOffHeapResults(boolean offHeapResults) {
+		this.offHeapResults = offHeapResults;
+	}
 
-				int tsCode = last.getTsCode();
-				if (last.getTsCode() != 0) {
-					// delect double transfer
-					if (newPath.getUnTransMap().get(tsCode) == null) {
-						newPath.getUnTransMap().put(tsCode, 0);
-					}
-					// transfer section +1 other +2
-					if (connect.getDir() == -1) {
-						int i = newPath.getUnTransMap().get(tsCode);
-						newPath.getUnTransMap().put(tsCode, i + 1);
-					} else {
-						int i = newPath.getUnTransMap().get(tsCode);
-						newPath.getUnTransMap().put(tsCode, i + 2);
-					}
-					if (newPath.getUnTransMap().get(tsCode) > 3) {
-						isDouble = true;
-						paths[start][end][--pathCounts[start][end]] = null;
-						break;
-					}
-				}
-				enqueue.add(newPath);
+	/**
+	 * Get the shortest paths between two stations without generating all the
+	 * paths, the search from start stops as soon as end has its paths
+	 * 
+	 * @param start  ID of the start station
+	 * @param end    ID of the end station
+	 * @param number The number of paths
+	 * @return The paths in rank order
+	 * @throws IllegalArgumentException If a station is unknown or start is end
+	 */
+	public List<RouteResult> queryPaths(int start, int end, int number) {
+		Network n = network;
+		int origin = n.graph.indexOf(start);
+		int dest = n.graph.indexOf(end);
+		if (origin < 0 || dest < 0)
+			throw new IllegalArgumentException("Unknown station " + (origin < 0 ? start : end));
+		if (origin == dest)
+			throw new IllegalArgumentException("Start and end are the same station " + start);
+
+		Path[] found = n.engine.search(origin, dest, number);
+
+		List<RouteResult> routes = new ArrayList<>(found.length);
+		for (int i = 0; i < found.length; ++i)
+			routes.add(new RouteResult(start, end, i + 1, found[i]));
+		return routes;
+	}
 
-			}
+	/**
+	 * @return A new timestamped output file
+	 */
+	public static File outputFile() {
+		return outputFile(null);
+	}
 
-		}
+	/**
+	 * @param profile The profile name put in the file name, null for none
+	 * @return A new timestamped output file
+	 */
+	public static File outputFile(String profile) {
+		DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+		String tag = profile == null ? "" : profile + "_";
+		return new File(OUTPUT + tag + LocalDateTime.now().format(formatter) + ".txt");
+	}
 
+	/**
+	 * @param shard The shard
+	 * @return The partition file of the shard, see ShardMerge
+	 */
+	public static File partitionFile(ShardSpec shard) {
+		return new File(OUTPUT + "part_" + shard.getIndex() + "_of_" + shard.getCount() + ".bin");
 	}
 
 	/**
 	 * Print the paths to the output
 	 */
 	public void printPaths() {
-		PrintWriter fout = null;
-		try {
-			DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
-			fout = new PrintWriter(new File(OUTPUT + LocalDateTime.now().format(formatter) + ".txt"));
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		}
-
-		StringBuffer routeStationCode = new StringBuffer();
-		StringBuffer routeLineCode = new StringBuffer();
-		// iterate through all endpoints
-		for (int start = 0; start < stations; ++start)
-			for (int end = 0; end < stations; ++end)
-				if (start != end) {
-					// output the number of paths and the distance
-//					fout.printf("Paths from %d (%s) to %d (%s): %d\n", statIDs[start], stats[statIDs[start]].getName(),
-//							statIDs[end], stats[statIDs[end]].getName(), pathCounts[start][end]);
-
-					// output the paths themselves
-					if (PATHOUTPUT) {
-						// go through each path and print it out
-						for (int i = 0; i < pathCounts[start][end]; ++i) {
-							Path cur = paths[start][end][i];
-							ArrayList<Station> stations = cur.getStations();
-							ArrayList<Line> lines = cur.getLines();
-
-							List<Integer> tList = new ArrayList<>();
-							// fout.printf("Path %d: %d seconds\n", i + 1, cur.getDist());
-							for (int j = 0; j < lines.size(); ++j) {
-
-								// adjust time when OorD is transfer
-								if (j == 0 && lines.get(0).getDir() == -1) {
-									int time = lines.get(0).getTime();
-//									cur.setDist(cur.getDist() - time);
-									double impedance = lines.get(0).getImpedance();
-//									cur.setImpedance(cur.getImpedance() - impedance);
-								}
-								if (j == lines.size() - 1 && lines.get(lines.size() - 1).getDir() == -1) {
-									int time = lines.get(lines.size() - 1).getTime();
-//									cur.setDist(cur.getDist() - time);
-									double impedance = lines.get(lines.size() - 1).getImpedance();
-//									cur.setImpedance(cur.getImpedance() - impedance);
-								}
-
-								// adjust end
-
-								if (lines.get(j).getDir() == -1) {
-//									fout.printf("Walk to ");
-									if (j != 0 && j != lines.size() - 1) {
-										// routeLineCode.append(lines.get(j).getStart().getLine().getID() + "-");
-										tList.add(j);
-									}
-								} else {
-
-								}
-//									fout.printf("Take Line %d (%s) to ", lines.get(j).getTrack().getID(),
-//											lines.get(j).getTrack().getName());
-//
-//								fout.printf("%d (%s)\n", stations.get(j + 1).getID(), stations.get(j + 1).getName());
-
-								routeStationCode.append(stations.get(j).getID() + "-");
-							}
-							routeStationCode.append(stations.get(lines.size()).getID());
-							if (tList.isEmpty()) {
-								routeLineCode.append(stations.get(lines.size() - 1).getLine().getID());
-							} else {
-								for (int t : tList) {
-									routeLineCode.append(lines.get(t).getStart().getLine().getID() + "-");
-								}
-								routeLineCode.append(stations.get(tList.get(tList.size() - 1) + 1).getLine().getID());
-							}
-							fout.printf("%s,%s,%d,%s,%s,%d,%.2f\n", statIDs[start], statIDs[end], i + 1, routeLineCode,
-									routeStationCode, cur.getDist(), cur.getImpedance() / 60);
-							routeStationCode.setLength(0);
-							routeLineCode.setLength(0);
-						}
-//						fout.println();
-					}
-					// print
-
-				}
+		printPaths(outputFile(), Runtime.getRuntime().availableProcessors(), false);
+	}
 
-		fout.close();
+	/**
+	 * Print the paths to a file, formatting the origins in parallel. The text
+	 * is the same for any number of threads.
+	 * 
+	 * @param file    The output file
+	 * @param threads Number of formatting threads
+	 * @param gzip    Compress the output
+	 */
+	public void printPaths(File file, int threads, boolean gzip) {
+		if (PATHOUTPUT)
+			PathWriter.write(results, file, threads, gzip);
+		else
+			new PathWriter(file, network.graph, 1, gzip).close();
 	}
 
 	/**
@@ -788,11 +1283,9 @@ public class Graph {
 	 */
 	public void printPath(int start, int end) {
 		PrintWriter fout = null;
-		PriorityQueue<Path> pqueue = new PriorityQueue<Path>();
 
 		String filename = start + "-" + end + ".txt";
 		try {
-			// fout = new PrintWriter(new File(OUTPUT));
 			fout = new PrintWriter(new File(filename));
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
@@ -804,79 +1297,36 @@ public class Graph {
 		if (start < 0 || end < 0)
 			throw new IllegalArgumentException();
 
-		// output the number of paths and the distance
-//		fout.printf("Paths from %d (%s) to %d (%s): %d\n", statIDs[start], stats[statIDs[start]].getName(),
-//				statIDs[end], stats[statIDs[end]].getName(), pathCounts[start][end]);
-
-		StringBuffer routeStationCode = new StringBuffer();
-		StringBuffer routeLineCode = new StringBuffer();
-		// output the paths themselves
-		if (PATHOUTPUT) {
-			// go through each path and print it out
-			for (int i = 0; i < pathCounts[start][end]; ++i) {
-				Path cur = paths[start][end][i];
-				ArrayList<Station> stations = cur.getStations();
-				ArrayList<Line> lines = cur.getLines();
-
-//				fout.printf("Path %d: %d seconds\n", i + 1, cur.getDist());
-
-				for (int j = 0; j < lines.size(); ++j) {
-					// adjust time when OorD is transfer
-					if (j == 0 && lines.get(0).getDir() == -1) {
-						int time = lines.get(0).getTime();
-//						cur.setDist(cur.getDist() - time);
-						double impedance = lines.get(0).getImpedance();
-//						cur.setImpedance(cur.getImpedance() - impedance);
-					}
-					if (j == lines.size() - 1 && lines.get(lines.size() - 1).getDir() == -1) {
-						int time = lines.get(lines.size() - 1).getTime();
-						// cur.setDist(cur.getDist() - time);
-						double impedance = lines.get(lines.size() - 1).getImpedance();
-						// cur.setImpedance(cur.getImpedance() - impedance);
-					}
-
-					// adjust end
-				}
-
-				List<Integer> tList = new ArrayList<>();
-				for (int j = 0; j < lines.size(); ++j) {
-
-					if (lines.get(j).getDir() == -1) {
-//						fout.printf("Walk to ");
-						if (j != 0 && j != lines.size() - 1) {
-							// routeLineCode.append(lines.get(j).getStart().getLine().getID() + "-");
-							tList.add(j);
-						}
-					} else {
-//						fout.printf("Take Line %d (%s) to ", lines.get(j).getTrack().getID(),
-//								lines.get(j).getTrack().getName());
-
-					}
-
-//					fout.printf("%d (%s)\n", stations.get(j + 1).getID(), stations.get(j + 1).getName());
-
-					routeStationCode.append(stations.get(j).getID() + "-");
-				}
-				routeStationCode.append(stations.get(lines.size()).getID());
+		// go through each path and print it out
+		if (PATHOUTPUT)
+			for (int i = 0; i < results.count(start, end); ++i)
+				PathFormat.print(fout, results, results.path(start, end, i), i + 1);
 
-				if (tList.isEmpty()) {
-					routeLineCode.append(stations.get(lines.size() - 1).getLine().getID());
-				} else {
-					for (int t : tList) {
-						routeLineCode.append(lines.get(t).getStart().getLine().getID() + "-");
-					}
-					routeLineCode.append(stations.get(tList.get(tList.size() - 1) + 1).getLine().getID());
-				}
+		fout.close();
+	}
 
-				fout.printf("%s,%s,%d,%s,%s,%d,%.2f\n", statIDs[start], statIDs[end], i + 1, routeLineCode,
-						routeStationCode, cur.getDist(), cur.getImpedance() / 60);
-				routeStationCode.setLength(0);
-				routeLineCode.setLength(0);
-			}
-//			fout.println();
+	/**
+	 * Write the paths of the shard generated by the last getPaths to a
+	 * partition file, see ShardMerge
+	 * 
+	 * @param file The partition file
+	 */
+	public void writeShard(File file) {
+		try (ShardWriter writer = new ShardWriter(file, this, resultsShard, resultsNumber)) {
+			writer.write(results);
 		}
+	}
 
-		fout.close();
+	/**
+	 * Write the generated paths to a binary path database, see PathDatabase
+	 * 
+	 * @param file The database file
+	 * @throws IOException If the file cannot be written
+	 */
+	public void writePathDatabase(File file) throws IOException {
+		try (PathDatabaseWriter writer = new PathDatabaseWriter(file, network.graph)) {
+			writer.write(results);
+		}
 	}
 
 }
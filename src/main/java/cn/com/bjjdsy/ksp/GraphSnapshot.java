@@ -0,0 +1,216 @@
+package cn.com.bjjdsy.ksp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Binary snapshot of a fully built network
+ *
+ * The snapshot holds the tracks, the stations with their track and transfer
+ * station code, and every connection with its time and impedance. It starts
+ * with a version and the SHA-256 of the input files it was built from, and is
+ * only read back while both still match.
+ *
+ */
+public final class GraphSnapshot {
+	public static final int MAGIC = 0x4B535047;
+	public static final int VERSION = 1;
+
+	private final Track[] tracks;
+	private final Station[] stations;
+	private final int lines;
+
+	/**
+	 * Constructor for a snapshot of a network
+	 *
+	 * @param tracks   The tracks, indexed by ID
+	 * @param stations The stations, ordered by their index
+	 * @param lines    The number of connection IDs given out
+	 */
+	public GraphSnapshot(Track[] tracks, Station[] stations, int lines) {
+		this.tracks = tracks;
+		this.stations = stations;
+		this.lines = lines;
+	}
+
+	/**
+	 * @return the tracks, indexed by ID
+	 */
+	public Track[] getTracks() {
+		return tracks;
+	}
+
+	/**
+	 * @return the stations, ordered by their index
+	 */
+	public Station[] getStations() {
+		return stations;
+	}
+
+	/**
+	 * @return the number of connection IDs given out
+	 */
+	public int getLines() {
+		return lines;
+	}
+
+	/**
+	 * Hash the content of the input files
+	 *
+	 * @param tag   Description of how the network is built from the files
+	 * @param files The input files
+	 * @return The SHA-256 of the tag, the names and the contents
+	 * @throws UncheckedIOException If a file cannot be read
+	 */
+	public static byte[] hash(String tag, File... files) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(tag.getBytes("UTF-8"));
+			digest.update(new byte[] { 0 });
+			for (File f : files) {
+				byte[] content = Files.readAllBytes(f.toPath());
+				digest.update(f.getName().getBytes("UTF-8"));
+				digest.update(new byte[] { 0 });
+				digest.update(Long.toString(content.length).getBytes("UTF-8"));
+				digest.update(content);
+			}
+			return digest.digest();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot hash the input files", e);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Write the snapshot, replacing the file once it is complete
+	 *
+	 * @param file The snapshot file
+	 * @param hash The hash of the input files
+	 * @throws UncheckedIOException If the file cannot be written
+	 */
+	public void write(File file, byte[] hash) {
+		File temp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(hash.length);
+			out.write(hash);
+
+			// the tracks
+			int count = 0;
+			for (Track t : tracks)
+				if (t != null)
+					count++;
+			out.writeInt(tracks.length);
+			out.writeInt(count);
+			for (Track t : tracks)
+				if (t != null) {
+					out.writeInt(t.getID());
+					out.writeUTF(t.getName() == null ? "" : t.getName());
+				}
+
+			// the stations
+			out.writeInt(stations.length);
+			for (Station s : stations) {
+				out.writeInt(s.getID());
+				out.writeUTF(s.getName() == null ? "" : s.getName());
+				out.writeInt(s.getLine() == null ? -1 : s.getLine().getID());
+				out.writeInt(s.getTsCode());
+			}
+
+			// the connections leaving every station, in neighbor order
+			out.writeInt(lines);
+			for (Station s : stations) {
+				out.writeInt(s.getNeighbors().size());
+				for (Station next : s.getNeighbors()) {
+					Line l = s.getConnection(next);
+					out.writeInt(l.getID());
+					out.writeInt(next.getID());
+					out.writeInt(l.getTrack() == null ? -1 : l.getTrack().getID());
+					out.writeInt(l.getDir());
+					out.writeInt(l.getDist());
+					out.writeInt(l.getTime());
+					out.writeDouble(l.getImpedance());
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot write the graph snapshot " + file, e);
+		}
+
+		try {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot write the graph snapshot " + file, e);
+		}
+	}
+
+	/**
+	 * Read a snapshot built from the given input
+	 *
+	 * @param file The snapshot file
+	 * @param hash The hash of the current input files
+	 * @return The snapshot, null if there is none or it is out of date
+	 */
+	public static GraphSnapshot read(File file, byte[] hash) {
+		if (!file.isFile())
+			return null;
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				return null;
+			byte[] stored = new byte[in.readInt()];
+			in.readFully(stored);
+			if (!Arrays.equals(stored, hash))
+				return null;
+
+			// the tracks
+			Track[] tracks = new Track[in.readInt()];
+			int count = in.readInt();
+			for (int i = 0; i < count; ++i) {
+				int id = in.readInt();
+				tracks[id] = new Track(id, in.readUTF());
+			}
+
+			// the stations
+			Station[] stations = new Station[in.readInt()];
+			int[] ids = new int[stations.length];
+			for (int u = 0; u < stations.length; ++u) {
+				ids[u] = in.readInt();
+				String name = in.readUTF();
+				int track = in.readInt();
+				stations[u] = new Station(ids[u], track < 0 ? null : tracks[track], name);
+				stations[u].setTsCode(in.readInt());
+			}
+
+			// the connections
+			int lines = in.readInt();
+			for (Station s : stations) {
+				int n = in.readInt();
+				for (int i = 0; i < n; ++i) {
+					int id = in.readInt();
+					int next = Arrays.binarySearch(ids, in.readInt());
+					int track = in.readInt();
+					s.addConnection(new Line(s, stations[next], track < 0 ? null : tracks[track], id, in.readInt(),
+							in.readInt(), in.readInt(), in.readDouble()));
+				}
+			}
+			return new GraphSnapshot(tracks, stations, lines);
+		} catch (IOException | RuntimeException e) {
+			// a damaged snapshot is built again
+			return null;
+		}
+	}
+}
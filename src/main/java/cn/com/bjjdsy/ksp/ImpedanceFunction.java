@@ -0,0 +1,27 @@
+package cn.com.bjjdsy.ksp;
+
+/**
+ * Turns the times of a connection into the impedance the searches minimize
+ *
+ */
+public interface ImpedanceFunction {
+	/**
+	 * @param travelTime Running time plus park time of a section
+	 * @return The impedance of the section
+	 */
+	double section(int travelTime);
+
+	/**
+	 * @param walkTime       Walk time of a transfer
+	 * @param departInterval Depart interval of the line transferred to
+	 * @return The impedance of the transfer
+	 */
+	double transfer(int walkTime, int departInterval);
+
+	/**
+	 * @return A name of the function and its parameters, the same in every
+	 *         run. Graph snapshots and shard partitions are only used with the
+	 *         function of the same key.
+	 */
+	String key();
+}
@@ -0,0 +1,52 @@
+package cn.com.bjjdsy.ksp;
+
+/**
+ * An algorithm generating the K shortest paths of the network
+ *
+ * Implementations must allow concurrent searches from different origins.
+ *
+ */
+public interface KShortestPathEngine {
+	/**
+	 * Get the shortest paths from an origin to every station
+	 *
+	 * @param origin Index of the origin station
+	 * @param number The number of paths per destination
+	 * @return The paths indexed by destination station, in rank order
+	 */
+	Path[][] search(int origin, int number);
+
+	/**
+	 * Get the shortest paths between one origin and one destination
+	 *
+	 * @param origin      Index of the origin station
+	 * @param destination Index of the destination station
+	 * @param number      The number of paths
+	 * @return The paths in rank order
+	 */
+	Path[] search(int origin, int destination, int number);
+
+	/**
+	 * The same algorithm with the same settings on other weights of the
+	 * network, used when the weights of the Graph change
+	 *
+	 * @param graph The graph with the new weights
+	 * @return The engine searching the graph
+	 */
+	KShortestPathEngine withGraph(CompactGraph graph);
+
+	/**
+	 * Get the shortest paths from one origin to a group of destinations
+	 *
+	 * @param origin       Index of the origin station
+	 * @param destinations Indices of the destination stations
+	 * @param number       The number of paths
+	 * @return The paths of every destination in the order given, in rank order
+	 */
+	default Path[][] search(int origin, int[] destinations, int number) {
+		Path[][] found = new Path[destinations.length][];
+		for (int i = 0; i < destinations.length; ++i)
+			found[i] = search(origin, destinations[i], number);
+		return found;
+	}
+}
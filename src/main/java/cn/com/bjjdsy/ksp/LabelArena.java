@@ -0,0 +1,307 @@
+package cn.com.bjjdsy.ksp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Storage for the search labels of one origin
+ *
+ * Every label is a partial path, kept as an index into parallel primitive
+ * arrays: the predecessor label, the station and the connection it arrived
+ * by, the accumulated time and impedance, the priority key, the number of hops
+ * and of transfers, and the visit count of the transfer station it left.
+ * Extending a label is O(1). The stations of a path are walked back once when
+ * it is marked for extension, after which the cycle and transfer station
+ * checks of every neighbor are O(1).
+ *
+ */
+public final class LabelArena {
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final CompactGraph graph;
+
+	// number of labels in use
+	private int size;
+
+	// the label data, indexed by label
+	private int[] preds;
+	private int[] nodes;
+	private int[] edges;
+	private int[] times;
+	private double[] impedances;
+	private double[] keys;
+	private int[] hops;
+	private int[] transfers;
+
+	// visit count of the transfer station of the predecessor, 0 if none
+	private int[] visitCounts;
+
+	// the marked label: stamps of its stations and of its transfer station visits
+	private int stamp;
+	private final int[] nodeStamps;
+	private final int[] visitStamps;
+	private final int[] markedVisits;
+
+	/**
+	 * Constructor for an empty arena
+	 *
+	 * @param graph The graph the labels run on
+	 */
+	public LabelArena(CompactGraph graph) {
+		this.graph = graph;
+
+		preds = new int[INITIAL_CAPACITY];
+		nodes = new int[INITIAL_CAPACITY];
+		edges = new int[INITIAL_CAPACITY];
+		times = new int[INITIAL_CAPACITY];
+		impedances = new double[INITIAL_CAPACITY];
+		keys = new double[INITIAL_CAPACITY];
+		hops = new int[INITIAL_CAPACITY];
+		transfers = new int[INITIAL_CAPACITY];
+		visitCounts = new int[INITIAL_CAPACITY];
+
+		nodeStamps = new int[graph.getNodes()];
+		visitStamps = new int[graph.getTransferStations()];
+		markedVisits = new int[graph.getTransferStations()];
+	}
+
+	/**
+	 * Remove all the labels, keeping the storage
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * @return the number of labels
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Add the label for the source of a search
+	 *
+	 * @param node The source station index
+	 * @return The new label
+	 */
+	public int addSource(int node) {
+		return add(-1, node, -1, 0, 0, 0, 0);
+	}
+
+	/**
+	 * Add a label extending another one
+	 *
+	 * @param pred       The label being extended
+	 * @param edge       The connection used
+	 * @param time       Accumulated time of the new label
+	 * @param impedance  Accumulated impedance of the new label
+	 * @param key        Priority of the new label, the impedance plus any lower
+	 *                   bound of the rest of the path
+	 * @param visitCount The new visit count of the transfer station left by the
+	 *                   connection, 0 if it is not a transfer station
+	 * @return The new label
+	 */
+	public int extend(int pred, int edge, int time, double impedance, double key, int visitCount) {
+		int label = add(pred, graph.target(edge), edge, time, impedance, key, visitCount);
+		hops[label] = hops[pred] + 1;
+
+		// a transfer is counted once the path goes on after it
+		transfers[label] = transfers[pred];
+		if (hops[pred] > 1 && graph.isTransfer(edges[pred]))
+			transfers[label]++;
+		return label;
+	}
+
+	private int add(int pred, int node, int edge, int time, double impedance, double key, int visitCount) {
+		if (size == preds.length)
+			grow();
+
+		int label = size++;
+		preds[label] = pred;
+		nodes[label] = node;
+		edges[label] = edge;
+		times[label] = time;
+		impedances[label] = impedance;
+		keys[label] = key;
+		hops[label] = 0;
+		transfers[label] = 0;
+		visitCounts[label] = visitCount;
+		return label;
+	}
+
+	private void grow() {
+		int capacity = preds.length * 2;
+		preds = Arrays.copyOf(preds, capacity);
+		nodes = Arrays.copyOf(nodes, capacity);
+		edges = Arrays.copyOf(edges, capacity);
+		times = Arrays.copyOf(times, capacity);
+		impedances = Arrays.copyOf(impedances, capacity);
+		keys = Arrays.copyOf(keys, capacity);
+		hops = Arrays.copyOf(hops, capacity);
+		transfers = Arrays.copyOf(transfers, capacity);
+		visitCounts = Arrays.copyOf(visitCounts, capacity);
+	}
+
+	/**
+	 * @param label Label index
+	 * @return The predecessor label, -1 for the source
+	 */
+	public int pred(int label) {
+		return preds[label];
+	}
+
+	/**
+	 * @param label Label index
+	 * @return The station the label ends at
+	 */
+	public int node(int label) {
+		return nodes[label];
+	}
+
+	/**
+	 * @param label Label index
+	 * @return The connection the label arrived by, -1 for the source
+	 */
+	public int edge(int label) {
+		return edges[label];
+	}
+
+	/**
+	 * @param label Label index
+	 * @return The accumulated time
+	 */
+	public int time(int label) {
+		return times[label];
+	}
+
+	/**
+	 * @param label Label index
+	 * @return The accumulated impedance
+	 */
+	public double impedance(int label) {
+		return impedances[label];
+	}
+
+	/**
+	 * @param label Label index
+	 * @return The priority key
+	 */
+	public double key(int label) {
+		return keys[label];
+	}
+
+	/**
+	 * @param label Label index
+	 * @return The number of connections in the path
+	 */
+	public int hops(int label) {
+		return hops[label];
+	}
+
+	/**
+	 * @param label Label index
+	 * @return The number of transfers inside the path
+	 */
+	public int transfers(int label) {
+		return transfers[label];
+	}
+
+	/**
+	 * Mark the path of a label for contains and visits, replacing the label
+	 * marked before
+	 *
+	 * @param label Label index
+	 */
+	public void mark(int label) {
+		if (++stamp == Integer.MAX_VALUE) {
+			Arrays.fill(nodeStamps, 0);
+			Arrays.fill(visitStamps, 0);
+			stamp = 1;
+		}
+
+		// walk back to the source, the last visit of a transfer station counts
+		for (int l = label; l >= 0; l = preds[l]) {
+			nodeStamps[nodes[l]] = stamp;
+			if (preds[l] >= 0) {
+				int ts = graph.tsIndex(nodes[preds[l]]);
+				if (ts >= 0 && visitStamps[ts] != stamp) {
+					visitStamps[ts] = stamp;
+					markedVisits[ts] = visitCounts[l];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks if the path of the marked label passes through a station
+	 *
+	 * @param node Station index
+	 * @return If the station is on the path
+	 */
+	public boolean contains(int node) {
+		return nodeStamps[node] == stamp;
+	}
+
+	/**
+	 * Counts the visits of the path of the marked label to a transfer station, a
+	 * transfer section counts 1 and any other connection counts 2
+	 *
+	 * @param node Index of a station of the transfer station
+	 * @return The visit count, 0 if it is not a transfer station
+	 */
+	public int visits(int node) {
+		int ts = graph.tsIndex(node);
+		return ts >= 0 && visitStamps[ts] == stamp ? markedVisits[ts] : 0;
+	}
+
+	/**
+	 * Compares two labels by key, then by number of stations, then by index
+	 *
+	 * @param a First label
+	 * @param b Second label
+	 * @return Negative if a comes first, positive if b comes first
+	 */
+	public int compare(int a, int b) {
+		// compare the key
+		if (keys[a] != keys[b])
+			return Double.compare(keys[a], keys[b]);
+
+		// compare the number of stations
+		if (hops[a] != hops[b])
+			return hops[a] - hops[b];
+
+		// the older label first
+		return a - b;
+	}
+
+	/**
+	 * Build the full Path of a label
+	 *
+	 * @param label Label index
+	 * @return The path from the source to the label
+	 */
+	public Path toPath(int label) {
+		int length = hops[label];
+		ArrayList<Station> stations = new ArrayList<Station>(length + 1);
+		ArrayList<Line> lines = new ArrayList<Line>(length);
+
+		// walk back to the source
+		for (int l = label; l >= 0; l = preds[l]) {
+			stations.add(graph.station(nodes[l]));
+			if (edges[l] >= 0)
+				lines.add(graph.line(edges[l]));
+		}
+
+		Path path = new Path();
+		for (int i = length; i >= 0; --i) {
+			if (i == length)
+				path.addStation(stations.get(i));
+			else
+				path.addStation(stations.get(i), lines.get(i));
+		}
+		path.setDist(times[label]);
+		path.setImpedance(impedances[label]);
+		return path;
+	}
+}
@@ -0,0 +1,126 @@
+package cn.com.bjjdsy.ksp;
+
+import java.util.Arrays;
+
+/**
+ * 4-ary min-heap of label indices ordered by LabelArena.compare
+ *
+ * The key of every label is kept next to it in the heap, so most comparisons
+ * do not touch the arena, and the four children of a slot share a cache line.
+ * The order is exact and deterministic: key, then number of hops, then label
+ * index.
+ *
+ */
+public final class LabelHeap {
+	private final LabelArena arena;
+
+	private int[] heap;
+	private double[] keys;
+	private int size;
+
+	/**
+	 * Constructor for an empty heap
+	 *
+	 * @param arena The arena holding the labels
+	 */
+	public LabelHeap(LabelArena arena) {
+		this.arena = arena;
+		heap = new int[256];
+		keys = new double[256];
+	}
+
+	/**
+	 * @return If the heap is empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return the number of labels in the heap
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Remove all the labels
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Add a label
+	 *
+	 * @param label Label index
+	 */
+	public void add(int label) {
+		if (size == heap.length) {
+			heap = Arrays.copyOf(heap, size * 2);
+			keys = Arrays.copyOf(keys, size * 2);
+		}
+
+		// sift up
+		double key = arena.key(label);
+		int k = size++;
+		while (k > 0) {
+			int parent = (k - 1) >>> 2;
+			if (!before(key, label, keys[parent], heap[parent]))
+				break;
+			heap[k] = heap[parent];
+			keys[k] = keys[parent];
+			k = parent;
+		}
+		heap[k] = label;
+		keys[k] = key;
+	}
+
+	/**
+	 * Remove the first label
+	 *
+	 * pre: the heap is not empty
+	 *
+	 * @return The first label
+	 */
+	public int poll() {
+		if (size == 0)
+			throw new IllegalStateException();
+
+		int result = heap[0];
+		int n = --size;
+		if (n > 0) {
+			// sift the last label down from the top
+			int label = heap[n];
+			double key = keys[n];
+			int k = 0;
+			while (true) {
+				int first = (k << 2) + 1;
+				if (first >= n)
+					break;
+
+				// the smallest of the children
+				int child = first;
+				int last = Math.min(first + 4, n);
+				for (int c = first + 1; c < last; ++c)
+					if (before(keys[c], heap[c], keys[child], heap[child]))
+						child = c;
+
+				if (!before(keys[child], heap[child], key, label))
+					break;
+				heap[k] = heap[child];
+				keys[k] = keys[child];
+				k = child;
+			}
+			heap[k] = label;
+			keys[k] = key;
+		}
+		return result;
+	}
+
+	private boolean before(double keyA, int a, double keyB, int b) {
+		if (keyA != keyB)
+			return keyA < keyB;
+		return arena.compare(a, b) < 0;
+	}
+}
@@ -0,0 +1,139 @@
+package cn.com.bjjdsy.ksp;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from long keys to int values, without boxing
+ *
+ */
+public final class LongIntMap {
+	private static final long MIX = 0x9E3779B97F4A7C15L;
+
+	private long[] keys;
+	private int[] values;
+	private boolean[] used;
+	private int size;
+	private int shift;
+
+	/**
+	 * Constructor for an empty map
+	 *
+	 * @param expected The number of keys expected
+	 */
+	public LongIntMap(int expected) {
+		int capacity = 16;
+		while (capacity < expected * 2)
+			capacity <<= 1;
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		used = new boolean[capacity];
+		shift = 64 - Integer.numberOfTrailingZeros(capacity);
+	}
+
+	/**
+	 * Key of a pair of ints
+	 *
+	 * @param high The first int
+	 * @param low  The second int
+	 * @return The key
+	 */
+	public static long pair(int high, int low) {
+		return (long) high << 32 | (low & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @return the number of keys
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Find the slot of a key, or the empty slot where it belongs
+	 */
+	private int slot(long key) {
+		int mask = keys.length - 1;
+		int i = (int) ((key * MIX) >>> shift);
+		while (used[i] && keys[i] != key)
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	/**
+	 * Set the value of a key
+	 *
+	 * @param key   The key
+	 * @param value The new value
+	 */
+	public void put(long key, int value) {
+		int i = slot(key);
+		if (!used[i]) {
+			if ((size + 1) * 2 > keys.length) {
+				grow();
+				i = slot(key);
+			}
+			used[i] = true;
+			keys[i] = key;
+			size++;
+		}
+		values[i] = value;
+	}
+
+	/**
+	 * @param key The key
+	 * @return If the key has a value
+	 */
+	public boolean containsKey(long key) {
+		return used[slot(key)];
+	}
+
+	/**
+	 * @param key     The key
+	 * @param missing The value returned when the key has none
+	 * @return The value of the key
+	 */
+	public int get(long key, int missing) {
+		int i = slot(key);
+		return used[i] ? values[i] : missing;
+	}
+
+	/**
+	 * @return A map with the same keys and values
+	 */
+	public LongIntMap copy() {
+		LongIntMap copy = new LongIntMap(0);
+		copy.keys = keys.clone();
+		copy.values = values.clone();
+		copy.used = used.clone();
+		copy.size = size;
+		copy.shift = shift;
+		return copy;
+	}
+
+	/**
+	 * Remove all the keys
+	 */
+	public void clear() {
+		Arrays.fill(used, false);
+		size = 0;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		boolean[] oldUsed = used;
+
+		allocate(keys.length * 2);
+		for (int i = 0; i < oldKeys.length; ++i)
+			if (oldUsed[i]) {
+				int j = slot(oldKeys[i]);
+				used[j] = true;
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+	}
+}
@@ -0,0 +1,100 @@
+package cn.com.bjjdsy.ksp;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Exact shortest impedances used as lower bounds of the rest of a path
+ *
+ * Only the sections are counted: transfers are charged lazily by the label
+ * search and not at all at the ends of a path, so counting them would make
+ * the bounds inconsistent. With sections only the key of a label never drops
+ * below the key of the label it extends.
+ *
+ */
+public final class LowerBounds {
+	private LowerBounds() {
+	}
+
+	/**
+	 * The shortest section impedance from every station to the nearest target
+	 *
+	 * @param graph   The graph
+	 * @param targets Indices of the target stations
+	 * @return The bounds indexed by station, infinite if no target is reachable
+	 */
+	public static double[] toTargets(CompactGraph graph, int[] targets) {
+		double[] dist = new double[graph.getNodes()];
+		Arrays.fill(dist, Double.POSITIVE_INFINITY);
+
+		PriorityQueue<double[]> queue = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+		for (int t : targets) {
+			dist[t] = 0;
+			queue.add(new double[] { 0, t });
+		}
+
+		// dijkstra over the incoming connections
+		while (!queue.isEmpty()) {
+			double[] cur = queue.poll();
+			int v = (int) cur[1];
+			if (cur[0] > dist[v])
+				continue;
+
+			for (int slot = graph.firstInEdge(v); slot < graph.endInEdge(v); ++slot) {
+				int e = graph.inEdge(slot);
+				int u = graph.source(e);
+				double d = cur[0] + (graph.isTransfer(e) ? 0 : graph.impedance(e));
+				if (d < dist[u]) {
+					dist[u] = d;
+					queue.add(new double[] { d, u });
+				}
+			}
+		}
+		return dist;
+	}
+
+	/**
+	 * The shortest impedance from a source to every station, counting the
+	 * transfers except one leaving the source or arriving at the station, which
+	 * the label search does not charge
+	 *
+	 * @param graph  The graph
+	 * @param source Index of the source station
+	 * @param avoid  Index of a station the paths may not pass, -1 for none
+	 * @return The bounds indexed by station, infinite if it is not reachable
+	 */
+	public static double[] fromSource(CompactGraph graph, int source, int avoid) {
+		double[] dist = new double[graph.getNodes()];
+		Arrays.fill(dist, Double.POSITIVE_INFINITY);
+
+		PriorityQueue<double[]> queue = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+		dist[source] = 0;
+		queue.add(new double[] { 0, source });
+
+		// dijkstra over the outgoing connections, the first transfer is free
+		while (!queue.isEmpty()) {
+			double[] cur = queue.poll();
+			int u = (int) cur[1];
+			if (cur[0] > dist[u])
+				continue;
+
+			for (int e = graph.firstEdge(u); e < graph.endEdge(u); ++e) {
+				int v = graph.target(e);
+				if (v == avoid)
+					continue;
+				double d = cur[0] + (graph.isTransfer(e) && u == source ? 0 : graph.impedance(e));
+				if (d < dist[v]) {
+					dist[v] = d;
+					queue.add(new double[] { d, v });
+				}
+			}
+		}
+
+		// the last transfer is free
+		double[] bounds = dist.clone();
+		for (int e = 0; e < graph.getEdges(); ++e)
+			if (graph.isTransfer(e) && graph.target(e) != avoid)
+				bounds[graph.target(e)] = Math.min(bounds[graph.target(e)], dist[graph.source(e)]);
+		return bounds;
+	}
+}
@@ -0,0 +1,503 @@
+package cn.com.bjjdsy.ksp;
+
+import java.util.Arrays;
+
+/**
+ * The label expanding search that polls partial paths in order of impedance
+ * and accepts the first "number" paths reaching every station
+ *
+ * Since a station takes no more than "number" paths, a label is dropped before
+ * it is queued once "number" labels that come before it reach the same
+ * station. This is only done at stations without a transfer station code,
+ * where an accepted path is never withdrawn.
+ *
+ */
+public class MultiDijkstraEngine implements KShortestPathEngine {
+	private final CompactGraph graph;
+	private final boolean lowerBounds;
+	private final SearchBounds choice;
+
+	// the counters of every search are kept here when set
+	private volatile SearchMetrics metrics;
+
+	/**
+	 * Constructor for the engine
+	 *
+	 * @param graph The graph to search
+	 */
+	public MultiDijkstraEngine(CompactGraph graph) {
+		this(graph, false);
+	}
+
+	/**
+	 * Constructor for the engine
+	 *
+	 * @param graph       The graph to search
+	 * @param lowerBounds Order the labels of OD searches by impedance plus the
+	 *                    shortest impedance left to the destinations and drop
+	 *                    the labels that cannot beat the paths already found.
+	 *                    The same paths are found, only paths of the same
+	 *                    impedance and length may come out in another order.
+	 */
+	public MultiDijkstraEngine(CompactGraph graph, boolean lowerBounds) {
+		this(graph, lowerBounds, SearchBounds.NONE);
+	}
+
+	/**
+	 * Constructor for the engine
+	 *
+	 * @param graph       The graph to search
+	 * @param lowerBounds See MultiDijkstraEngine(CompactGraph, boolean)
+	 * @param choice      Limits of the choice sets. A path past the limit of its
+	 *                    station takes its place among the "number" paths but is
+	 *                    not returned, paths with too many transfers are not
+	 *                    extended, and the search of an origin ends once every
+	 *                    destination is full or past its limit.
+	 */
+	public MultiDijkstraEngine(CompactGraph graph, boolean lowerBounds, SearchBounds choice) {
+		this.graph = graph;
+		this.lowerBounds = lowerBounds;
+		this.choice = choice;
+	}
+
+	/**
+	 * @return the collector of the search counters, null if they are not kept
+	 */
+	public SearchMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Keep the counters, time and allocation of every following search. The
+	 * labels are always counted, the time and the allocation are only measured
+	 * while a collector is set or a flight recording takes the search events.
+	 *
+	 * @param metrics The collector, null to stop keeping the counters
+	 */
+	public void setMetrics(SearchMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public KShortestPathEngine withGraph(CompactGraph graph) {
+		MultiDijkstraEngine engine = new MultiDijkstraEngine(graph, lowerBounds, choice);
+		engine.metrics = metrics;
+		return engine;
+	}
+
+	@Override
+	public Path[][] search(int origin, int number) {
+		int stations = graph.getNodes();
+		Path[][] found = new Path[stations][number];
+		int[] counts = new int[stations];
+
+		multiDijkstra(origin, null, number, found, counts);
+
+		// trim the results to the paths found
+		for (int end = 0; end < stations; ++end)
+			found[end] = trim(found[end], counts[end]);
+		return found;
+	}
+
+	/**
+	 * Runs the search from the origin only until the destination has all its
+	 * paths. The labels of a station are polled in the same order as in the
+	 * full search, so the paths are the same.
+	 */
+	@Override
+	public Path[] search(int origin, int destination, int number) {
+		return search(origin, new int[] { destination }, number)[0];
+	}
+
+	@Override
+	public Path[][] search(int origin, int[] destinations, int number) {
+		int stations = graph.getNodes();
+		Path[][] found = new Path[stations][number];
+		int[] counts = new int[stations];
+
+		multiDijkstra(origin, destinations, number, found, counts);
+
+		Path[][] result = new Path[destinations.length][];
+		for (int i = 0; i < destinations.length; ++i)
+			result[i] = trim(found[destinations[i]], counts[destinations[i]]);
+		return result;
+	}
+
+	/**
+	 * Get all the shortest paths starting from a start, measuring the search
+	 * when its counters are kept
+	 * 
+	 * @param start   The starting node
+	 * @param targets Stop once these nodes have all their paths, null to search
+	 *                all
+	 * @param number  The number of paths
+	 * @param found   The paths found for every end
+	 * @param counts  The number of paths found for every end
+	 */
+	private void multiDijkstra(int start, int[] targets, int number, Path[][] found, int[] counts) {
+		SearchStats stats = new SearchStats(start);
+		SearchMetrics collector = metrics;
+		OriginSearchEvent event = new OriginSearchEvent();
+		if (collector == null && !event.isEnabled()) {
+			multiDijkstra(start, targets, number, found, counts, stats);
+			return;
+		}
+
+		event.begin();
+		long allocated = SearchMetrics.allocatedBytes();
+		long time = System.nanoTime();
+		multiDijkstra(start, targets, number, found, counts, stats);
+		stats.nanos = System.nanoTime() - time;
+		stats.allocatedBytes = allocated < 0 ? -1 : SearchMetrics.allocatedBytes() - allocated;
+		event.end();
+
+		if (collector != null)
+			collector.record(stats);
+		if (event.shouldCommit()) {
+			event.origin = start;
+			event.station = graph.stationID(start);
+			event.number = number;
+			event.pushed = stats.pushed;
+			event.polled = stats.polled;
+			event.peakQueue = stats.peakQueue;
+			event.accepted = stats.accepted;
+			event.rejectedCycle = stats.rejectedCycle;
+			event.rejectedFull = stats.rejectedFull;
+			event.rejectedDominated = stats.rejectedDominated;
+			event.rejectedTransfer = stats.rejectedTransfer;
+			event.rejectedDoubleTransfer = stats.rejectedDoubleTransfer;
+			event.rejectedBound = stats.rejectedBound;
+			event.allocated = stats.allocatedBytes;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Get all the shortest paths starting from a start
+	 * 
+	 * @param start   The starting node
+	 * @param targets Stop once these nodes have all their paths, null to search
+	 *                all
+	 * @param number  The number of paths
+	 * @param found   The paths found for every end
+	 * @param counts  The number of paths found for every end
+	 * @param stats   Counters of the labels
+	 */
+	private void multiDijkstra(int start, int[] targets, int number, Path[][] found, int[] counts,
+			SearchStats stats) {
+		// the labels of this origin and the priority queue over them
+		LabelArena arena = new LabelArena(graph);
+		LabelHeap enqueue = new LabelHeap(arena);
+
+		// the targets still waiting for paths
+		int[] slots = null;
+		int open = 0;
+		if (targets != null) {
+			slots = new int[graph.getNodes()];
+			Arrays.fill(slots, -1);
+			for (int t : targets)
+				if (slots[t] < 0)
+					slots[t] = open++;
+		}
+
+		// lower bounds and the best candidate impedances of every target
+		double[] bounds = null;
+		double[][] candidates = null;
+		int[] candidateCounts = null;
+		if (lowerBounds && targets != null) {
+			bounds = LowerBounds.toTargets(graph, targets);
+			candidates = new double[open][number];
+			candidateCounts = new int[open];
+		}
+
+		// the best labels queued at every station
+		double[] queuedKeys = new double[graph.getNodes() * number];
+		int[] queuedHops = new int[graph.getNodes() * number];
+		int[] queuedCounts = new int[graph.getNodes()];
+
+		// the shortest impedance and the choice set limit of every station
+		boolean bounded = choice.isBounded();
+		double[] shortest = null;
+		double[] limits = null;
+		boolean[] waiting = null;
+		int unknown = 0;
+		double openLimit = Double.POSITIVE_INFINITY;
+		if (bounded) {
+			shortest = new double[graph.getNodes()];
+			limits = new double[graph.getNodes()];
+			Arrays.fill(shortest, Double.NaN);
+			Arrays.fill(limits, Double.POSITIVE_INFINITY);
+
+			// the destinations that can still take paths
+			waiting = reachable(start);
+			if (targets != null) {
+				boolean[] wanted = new boolean[graph.getNodes()];
+				for (int t : targets)
+					wanted[t] = waiting[t];
+				waiting = wanted;
+			}
+			for (boolean w : waiting)
+				if (w)
+					unknown++;
+		}
+
+		// add the first path
+		enqueue.add(arena.addSource(start));
+		stats.pushed++;
+		stats.peakQueue = 1;
+
+		// iterate through possible paths
+		while (!enqueue.isEmpty()) {
+			// get the best path and the index of its last station
+			int best = enqueue.poll();
+			int end = arena.node(best);
+			stats.polled++;
+
+			// every destination left is past its limit
+			if (bounded && unknown == 0 && arena.key(best) > openLimit)
+				break;
+
+			// if enough paths have been found continue
+			if (counts[end] >= number) {
+				stats.rejectedFull++;
+				continue;
+			}
+
+			if (bounded) {
+				if (Double.isNaN(shortest[end])) {
+					// the first path sets the limit
+					shortest[end] = arena.impedance(best);
+					limits[end] = choice.limit(shortest[end]);
+					if (waiting[end] && --unknown == 0)
+						openLimit = openLimit(waiting, limits);
+				}
+			}
+
+			// a path past the limit is searched on but left out of the choice set
+			if (bounded && arena.impedance(best) > limits[end])
+				found[end][counts[end]++] = null;
+			else
+				found[end][counts[end]++] = arena.toPath(best);
+			stats.accepted++;
+
+			// skip start when its transfer, otherwise charge the transfer now
+			boolean isTrans = false;
+			int time = arena.time(best);
+			double impedance = arena.impedance(best);
+			int arrive = arena.edge(best);
+			if (arrive >= 0 && graph.isTransfer(arrive)) {
+				isTrans = true;
+				if (arena.hops(best) > 1) {
+					time += graph.time(arrive);
+					impedance += graph.impedance(arrive);
+				}
+			}
+
+			// labels with a larger key cannot reach a target in time
+			double limit = Double.POSITIVE_INFINITY;
+			if (bounds != null)
+				limit = pruneLimit(candidates, candidateCounts, number);
+
+			// the transfer the path arrived by is inside the extended paths, with
+			// too many transfers the path is kept but not extended
+			int nextTransfers = arena.transfers(best) + (isTrans && arena.hops(best) > 1 ? 1 : 0);
+			int lastEdge = nextTransfers > choice.getMaxTransfers() ? graph.firstEdge(end) : graph.endEdge(end);
+
+			// iterate through the neighboring nodes
+			arena.mark(best);
+			int tsCode = graph.tsCode(end);
+			int visited = tsCode != 0 ? arena.visits(end) : 0;
+			for (int e = graph.firstEdge(end); e < lastEdge; ++e) {
+				int next = graph.target(e);
+
+				// if it creates a cycle continue
+				if (arena.contains(next)) {
+					stats.rejectedCycle++;
+					continue;
+				}
+
+				// no transfer right after a transfer
+				boolean transfer = graph.isTransfer(e);
+				if (transfer && isTrans) {
+					stats.rejectedTransfer++;
+					continue;
+				}
+
+				// delect double transfer: transfer section +1 other +2
+				int visits = 0;
+				if (tsCode != 0) {
+					visits = visited + (transfer ? 1 : 2);
+					if (visits > 3) {
+						found[end][--counts[end]] = null;
+						stats.accepted--;
+						stats.rejectedDoubleTransfer++;
+						break;
+					}
+				}
+
+				// walking time is charged when leaving the transfer
+				int nextTime = transfer ? time : time + graph.time(e);
+				double nextImpedance = transfer ? impedance : impedance + graph.impedance(e);
+
+				double key = nextImpedance;
+				if (bounds != null) {
+					key += bounds[next];
+					if (key > limit) {
+						stats.rejectedBound++;
+						continue;
+					}
+
+					// a candidate that cannot be withdrawn tightens the limit
+					if (slots[next] >= 0 && graph.tsCode(next) == 0) {
+						addCandidate(candidates[slots[next]], candidateCounts, slots[next], nextImpedance);
+						limit = pruneLimit(candidates, candidateCounts, number);
+					}
+				}
+
+				// past the limit of every destination left
+				if (bounded && unknown == 0 && key > openLimit) {
+					stats.rejectedBound++;
+					continue;
+				}
+
+				// the next station is full or will be before the label comes out
+				if (counts[next] >= number) {
+					stats.rejectedFull++;
+					continue;
+				}
+				if (graph.tsCode(next) == 0
+						&& !queue(queuedKeys, queuedHops, queuedCounts, next, number, key, arena.hops(best) + 1)) {
+					stats.rejectedDominated++;
+					continue;
+				}
+
+				// add the path
+				enqueue.add(arena.extend(best, e, nextTime, nextImpedance, key, visits));
+				stats.pushed++;
+				if (enqueue.size() > stats.peakQueue)
+					stats.peakQueue = enqueue.size();
+			}
+
+			// a target is done once its last path survived its expansion
+			if (slots != null && slots[end] >= 0 && counts[end] >= number && --open == 0)
+				break;
+
+			// a full destination no longer holds the search
+			if (bounded && waiting[end] && counts[end] >= number) {
+				waiting[end] = false;
+				if (unknown == 0)
+					openLimit = openLimit(waiting, limits);
+			}
+		}
+	}
+
+	/**
+	 * Keep the best labels queued at a station, in queue order. A new label comes
+	 * after the labels already queued with the same key and hops.
+	 *
+	 * @return False if "number" queued labels come before the new one
+	 */
+	private static boolean queue(double[] keys, int[] hops, int[] counts, int node, int number, double key,
+			int hop) {
+		int first = node * number;
+		int n = counts[node];
+		if (n == number) {
+			int last = first + n - 1;
+			if (key > keys[last] || key == keys[last] && hop >= hops[last])
+				return false;
+			n--;
+		} else {
+			counts[node]++;
+		}
+
+		// insert in order
+		int i = first + n;
+		while (i > first && (keys[i - 1] > key || keys[i - 1] == key && hops[i - 1] > hop)) {
+			keys[i] = keys[i - 1];
+			hops[i] = hops[i - 1];
+			i--;
+		}
+		keys[i] = key;
+		hops[i] = hop;
+		return true;
+	}
+
+	/**
+	 * The paths found, without the ones left out of the choice set
+	 */
+	private static Path[] trim(Path[] found, int count) {
+		int n = 0;
+		Path[] paths = new Path[count];
+		for (int i = 0; i < count; ++i)
+			if (found[i] != null)
+				paths[n++] = found[i];
+		return n == count ? paths : Arrays.copyOf(paths, n);
+	}
+
+	/**
+	 * The stations reachable from a start
+	 */
+	private boolean[] reachable(int start) {
+		boolean[] seen = new boolean[graph.getNodes()];
+		int[] queue = new int[graph.getNodes()];
+		int head = 0, tail = 0;
+		seen[start] = true;
+		queue[tail++] = start;
+		while (head < tail) {
+			int u = queue[head++];
+			for (int e = graph.firstEdge(u); e < graph.endEdge(u); ++e)
+				if (!seen[graph.target(e)]) {
+					seen[graph.target(e)] = true;
+					queue[tail++] = graph.target(e);
+				}
+		}
+		return seen;
+	}
+
+	/**
+	 * The largest limit of the destinations still waiting for paths
+	 */
+	private static double openLimit(boolean[] waiting, double[] limits) {
+		double limit = Double.NEGATIVE_INFINITY;
+		for (int u = 0; u < waiting.length; ++u)
+			if (waiting[u])
+				limit = Math.max(limit, limits[u]);
+		return limit;
+	}
+
+	/**
+	 * Keep the smallest impedances of the candidates of a target
+	 */
+	private static void addCandidate(double[] best, int[] counts, int slot, double impedance) {
+		int n = counts[slot];
+		if (n == best.length) {
+			if (impedance >= best[n - 1])
+				return;
+			n--;
+		} else {
+			counts[slot]++;
+		}
+
+		// insert in order
+		int i = n;
+		while (i > 0 && best[i - 1] > impedance) {
+			best[i] = best[i - 1];
+			i--;
+		}
+		best[i] = impedance;
+	}
+
+	/**
+	 * The key from which a label cannot improve any target: every target has
+	 * "number" candidates below it
+	 */
+	private static double pruneLimit(double[][] candidates, int[] counts, int number) {
+		double limit = Double.NEGATIVE_INFINITY;
+		for (int slot = 0; slot < counts.length; ++slot) {
+			if (counts[slot] < number)
+				return Double.POSITIVE_INFINITY;
+			limit = Math.max(limit, candidates[slot][number - 1]);
+		}
+		return limit;
+	}
+}
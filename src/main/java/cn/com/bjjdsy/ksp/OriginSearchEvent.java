@@ -0,0 +1,66 @@
+package cn.com.bjjdsy.ksp;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of the search of one origin
+ *
+ * Only committed while a recording has the event enabled, for example with
+ * -XX:StartFlightRecording. The event lasts as long as the search.
+ *
+ */
+@Name("cn.com.bjjdsy.ksp.OriginSearch")
+@Label("Origin Search")
+@Category("KSP")
+@Description("K shortest path search of one origin")
+@StackTrace(false)
+final class OriginSearchEvent extends Event {
+	@Label("Origin")
+	int origin;
+
+	@Label("Origin Station")
+	int station;
+
+	@Label("Paths Wanted")
+	int number;
+
+	@Label("Labels Pushed")
+	long pushed;
+
+	@Label("Labels Polled")
+	long polled;
+
+	@Label("Peak Queue")
+	int peakQueue;
+
+	@Label("Paths Accepted")
+	long accepted;
+
+	@Label("Rejected Cycle")
+	long rejectedCycle;
+
+	@Label("Rejected Full")
+	long rejectedFull;
+
+	@Label("Rejected Dominated")
+	long rejectedDominated;
+
+	@Label("Rejected Transfer")
+	long rejectedTransfer;
+
+	@Label("Rejected Double Transfer")
+	long rejectedDoubleTransfer;
+
+	@Label("Rejected Bound")
+	long rejectedBound;
+
+	@Label("Allocated")
+	@DataAmount
+	long allocated;
+}
@@ -0,0 +1,275 @@
+package cn.com.bjjdsy.ksp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Memory mapped reader of a binary path database written by
+ * PathDatabaseWriter
+ *
+ * Opening only maps the file, the paths of an (origin, destination) pair are
+ * found through the index and read in place from the mapping.
+ *
+ */
+public class PathDatabase implements Closeable {
+	private final FileChannel channel;
+	private final int stations;
+	private final int windowBits;
+
+	// station tables
+	private final int[] stationIDs;
+	private final int[] trackIDs;
+	private final Map<Integer, Integer> indices;
+
+	// the index and the record windows
+	private final ByteBuffer index;
+	private final ByteBuffer[] windows;
+
+	/**
+	 * Open a database
+	 *
+	 * @param file The database file
+	 * @throws IOException If the file cannot be read or is not a path database
+	 */
+	public PathDatabase(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size < PathDatabaseWriter.HEADER_BYTES)
+				throw new IOException("Not a path database: " + file);
+
+			// check the header
+			ByteBuffer header = map(0, PathDatabaseWriter.HEADER_BYTES);
+			if (header.getInt(0) != PathDatabaseWriter.MAGIC)
+				throw new IOException("Not a path database: " + file);
+			if (header.getInt(4) != PathDatabaseWriter.VERSION)
+				throw new IOException("Unsupported path database version " + header.getInt(4) + ": " + file);
+			stations = header.getInt(8);
+			windowBits = header.getInt(12);
+			long recordsStart = header.getLong(16);
+
+			// read the station tables
+			ByteBuffer table = map(PathDatabaseWriter.HEADER_BYTES, 8L * stations);
+			stationIDs = new int[stations];
+			trackIDs = new int[stations];
+			indices = new HashMap<>();
+			for (int u = 0; u < stations; ++u) {
+				stationIDs[u] = table.getInt(4 * u);
+				trackIDs[u] = table.getInt(4 * (stations + u));
+				indices.put(stationIDs[u], u);
+			}
+
+			index = map(PathDatabaseWriter.HEADER_BYTES + 8L * stations,
+					(long) PathDatabaseWriter.INDEX_ENTRY_BYTES * stations * stations);
+
+			// map the records window by window
+			long window = 1L << windowBits;
+			long records = size - recordsStart;
+			windows = new ByteBuffer[(int) ((records + window - 1) / window)];
+			for (int i = 0; i < windows.length; ++i)
+				windows[i] = map(recordsStart + i * window, Math.min(window, records - i * window));
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private ByteBuffer map(long position, long size) throws IOException {
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("Path database section too large to map.");
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+		return buffer.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * @return the number of stations
+	 */
+	public int getStations() {
+		return stations;
+	}
+
+	/**
+	 * @param stationID ID of a station
+	 * @return The index of the station, -1 if it is not in the database
+	 */
+	public int indexOf(int stationID) {
+		Integer index = indices.get(stationID);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * @param u Station index
+	 * @return The ID of the station
+	 */
+	public int stationID(int u) {
+		return stationIDs[u];
+	}
+
+	/**
+	 * Number of paths between two stations
+	 *
+	 * @param originID ID of the origin station
+	 * @param destID   ID of the destination station
+	 * @return The number of paths
+	 */
+	public int count(int originID, int destID) {
+		return index.getInt(entry(originID, destID) + 8);
+	}
+
+	/**
+	 * The paths between two stations
+	 *
+	 * @param originID ID of the origin station
+	 * @param destID   ID of the destination station
+	 * @return The paths in rank order, read in place
+	 */
+	public List<Route> paths(int originID, int destID) {
+		int entry = entry(originID, destID);
+		long offset = index.getLong(entry);
+		int count = index.getInt(entry + 8);
+
+		List<Route> routes = new ArrayList<>(count);
+		long window = 1L << windowBits;
+		for (int i = 0; i < count; ++i) {
+			// skip the padding at the end of a window
+			ByteBuffer buffer = windows[(int) (offset >>> windowBits)];
+			int pos = (int) (offset & (window - 1));
+			if (pos + PathDatabaseWriter.RECORD_HEADER_BYTES > buffer.limit() || buffer.getInt(pos) == 0) {
+				offset = (offset >>> windowBits) + 1 << windowBits;
+				buffer = windows[(int) (offset >>> windowBits)];
+				pos = 0;
+			}
+
+			Route route = new Route(buffer, pos, i + 1);
+			routes.add(route);
+			offset += PathDatabaseWriter.RECORD_HEADER_BYTES + 4L * route.length();
+		}
+		return routes;
+	}
+
+	private int entry(int originID, int destID) {
+		int origin = indexOf(originID);
+		int dest = indexOf(destID);
+		if (origin < 0 || dest < 0)
+			throw new IllegalArgumentException("Unknown station " + (origin < 0 ? originID : destID));
+
+		return PathDatabaseWriter.INDEX_ENTRY_BYTES * (origin * stations + dest);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * A path read in place from the database
+	 */
+	public final class Route {
+		private final ByteBuffer buffer;
+		private final int pos;
+		private final int rank;
+
+		private Route(ByteBuffer buffer, int pos, int rank) {
+			this.buffer = buffer;
+			this.pos = pos;
+			this.rank = rank;
+		}
+
+		/**
+		 * @return the rank of the path, starting at 1
+		 */
+		public int getRank() {
+			return rank;
+		}
+
+		/**
+		 * @return the number of stations
+		 */
+		public int length() {
+			return buffer.getInt(pos);
+		}
+
+		/**
+		 * @return the time of the path
+		 */
+		public int getDist() {
+			return buffer.getInt(pos + 4);
+		}
+
+		/**
+		 * @return the impedance of the path
+		 */
+		public double getImpedance() {
+			return buffer.getDouble(pos + 8);
+		}
+
+		/**
+		 * @param i Position in the path
+		 * @return The index of the i-th station
+		 */
+		public int node(int i) {
+			return buffer.getInt(pos + PathDatabaseWriter.RECORD_HEADER_BYTES + 4 * i);
+		}
+
+		/**
+		 * @param i Position in the path
+		 * @return The ID of the i-th station
+		 */
+		public int stationID(int i) {
+			return stationIDs[node(i)];
+		}
+
+		/**
+		 * @return The stations joined by "-"
+		 */
+		public String routeStationCode() {
+			StringBuilder code = new StringBuilder();
+			for (int i = 0; i < length(); ++i) {
+				if (i > 0)
+					code.append('-');
+				code.append(stationID(i));
+			}
+			return code.toString();
+		}
+
+		/**
+		 * The lines joined by "-" as in PathFormat, sections never leave their
+		 * track so a change of track is a transfer
+		 *
+		 * @return The route line code
+		 */
+		public String routeLineCode() {
+			int lines = length() - 1;
+
+			StringBuilder code = new StringBuilder();
+			int lastTransfer = -1;
+			for (int j = 1; j < lines - 1; ++j)
+				if (trackIDs[node(j)] != trackIDs[node(j + 1)]) {
+					code.append(trackIDs[node(j)]).append('-');
+					lastTransfer = j;
+				}
+
+			code.append(trackIDs[node(lastTransfer < 0 ? lines - 1 : lastTransfer + 1)]);
+			return code.toString();
+		}
+
+		/**
+		 * @return The path as a row of the printPaths output, without line end
+		 */
+		@Override
+		public String toString() {
+			return String.format("%s,%s,%d,%s,%s,%d,%.2f", stationID(0), stationID(length() - 1), rank,
+					routeLineCode(), routeStationCode(), getDist(), getImpedance() / 60);
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package cn.com.bjjdsy.ksp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes generated paths to a binary path database read by PathDatabase
+ *
+ * Layout, little endian:
+ * <ul>
+ * <li>header: magic, version, number of stations, window bits, offset of the
+ * records</li>
+ * <li>the station ID and the track ID of every station index</li>
+ * <li>the index: for every (origin, destination) the offset of its first
+ * record and the number of records</li>
+ * <li>the records: number of stations, time, impedance and the station indices
+ * of a path, the records of a pair are consecutive and in rank order. Like the
+ * text output, a station has no records to itself.</li>
+ * </ul>
+ * A record never crosses a multiple of 2^WINDOW_BITS bytes from the start of
+ * the records, so the reader can map the file in windows.
+ *
+ */
+public class PathDatabaseWriter implements PathSink {
+	public static final int MAGIC = 0x4B535042;
+	public static final int VERSION = 1;
+	public static final int WINDOW_BITS = 30;
+	public static final int HEADER_BYTES = 24;
+	public static final int INDEX_ENTRY_BYTES = 12;
+	public static final int RECORD_HEADER_BYTES = 16;
+
+	private final CompactGraph graph;
+	private final int stations;
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+
+	// the index, written when closing
+	private final long[] odOffsets;
+	private final int[] odCounts;
+
+	// start of the records in the file and bytes of records written
+	private final long recordsStart;
+	private long written;
+
+	/**
+	 * Constructor for the writer, truncating the file
+	 *
+	 * @param file  The database file
+	 * @param graph The graph the paths run on
+	 * @throws IOException If the file cannot be written
+	 */
+	public PathDatabaseWriter(File file, CompactGraph graph) throws IOException {
+		this.graph = graph;
+		this.stations = graph.getNodes();
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		this.buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+		odOffsets = new long[stations * stations];
+		odCounts = new int[stations * stations];
+		recordsStart = HEADER_BYTES + 8L * stations + (long) INDEX_ENTRY_BYTES * stations * stations;
+
+		// the header and the station table, the index follows when closing
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(stations).putInt(WINDOW_BITS).putLong(recordsStart);
+		for (int u = 0; u < stations; ++u)
+			buffer.putInt(graph.stationID(u));
+		for (int u = 0; u < stations; ++u)
+			buffer.putInt(graph.trackID(u));
+		flush(0);
+		written = 0;
+	}
+
+	@Override
+	public synchronized void accept(int origin, Path[][] paths) {
+		for (int end = 0; end < paths.length; ++end) {
+			int[][] routes = new int[paths[end].length][];
+			int[] times = new int[routes.length];
+			double[] impedances = new double[routes.length];
+
+			for (int i = 0; i < routes.length; ++i) {
+				Path p = paths[end][i];
+				routes[i] = new int[p.getStations().size()];
+				for (int j = 0; j < routes[i].length; ++j)
+					routes[i][j] = graph.indexOf(p.getStations().get(j).getID());
+				times[i] = p.getDist();
+				impedances[i] = p.getImpedance();
+			}
+			write(origin, end, routes, times, impedances);
+		}
+	}
+
+	/**
+	 * Write all the paths of a store
+	 *
+	 * @param store The stored paths
+	 */
+	public synchronized void write(PathStore store) {
+		for (int origin = 0; origin < stations; ++origin)
+			for (int end = 0; end < stations; ++end) {
+				int count = store.count(origin, end);
+				int[][] routes = new int[count][];
+				int[] times = new int[count];
+				double[] impedances = new double[count];
+
+				for (int i = 0; i < count; ++i) {
+					int path = store.path(origin, end, i);
+					routes[i] = store.route(path);
+					times[i] = store.time(path);
+					impedances[i] = store.impedance(path);
+				}
+				write(origin, end, routes, times, impedances);
+			}
+	}
+
+	/**
+	 * Write the paths of one (origin, destination) pair, the paths of a station
+	 * to itself are skipped
+	 *
+	 * @param origin     Index of the origin station
+	 * @param end        Index of the destination station
+	 * @param routes     The station indices of every path
+	 * @param times      The time of every path
+	 * @param impedances The impedance of every path
+	 */
+	public synchronized void write(int origin, int end, int[][] routes, int[] times, double[] impedances) {
+		if (origin == end)
+			return;
+
+		int od = origin * stations + end;
+		odCounts[od] = routes.length;
+
+		for (int i = 0; i < routes.length; ++i) {
+			int bytes = RECORD_HEADER_BYTES + 4 * routes[i].length;
+			if (bytes > buffer.capacity())
+				throw new IllegalArgumentException("Path too long for the database.");
+
+			// pad so the record does not cross a window
+			long offset = written;
+			long window = 1L << WINDOW_BITS;
+			if (offset / window != (offset + bytes - 1) / window)
+				offset = (offset / window + 1) * window;
+			while (written < offset) {
+				ensure(1);
+				buffer.put((byte) 0);
+				written++;
+			}
+
+			if (i == 0)
+				odOffsets[od] = offset;
+
+			ensure(bytes);
+			buffer.putInt(routes[i].length).putInt(times[i]).putDouble(impedances[i]);
+			for (int node : routes[i])
+				buffer.putInt(node);
+			written += bytes;
+		}
+	}
+
+	private void ensure(int bytes) {
+		if (buffer.remaining() < bytes)
+			flush(recordsStart + written - buffer.position());
+	}
+
+	/**
+	 * Write the buffer at a position of the file
+	 */
+	private void flush(long position) {
+		buffer.flip();
+		try {
+			while (buffer.hasRemaining())
+				position += channel.write(buffer, position);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		buffer.clear();
+	}
+
+	@Override
+	public synchronized void close() {
+		try {
+			flush(recordsStart + written - buffer.position());
+
+			// write the index
+			long position = HEADER_BYTES + 8L * stations;
+			for (int od = 0; od < odCounts.length; ++od) {
+				if (buffer.remaining() < INDEX_ENTRY_BYTES) {
+					int size = buffer.position();
+					flush(position);
+					position += size;
+				}
+				buffer.putLong(odOffsets[od]).putInt(odCounts[od]);
+			}
+			flush(position);
+			channel.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
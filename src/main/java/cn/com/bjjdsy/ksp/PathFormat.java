@@ -0,0 +1,147 @@
+package cn.com.bjjdsy.ksp;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Formats a path as a row of the output:
+ * origin,destination,rank,routeLineCode,routeStationCode,time,impedance
+ *
+ */
+public final class PathFormat {
+	private PathFormat() {
+	}
+
+	/**
+	 * The stations of the path joined by "-"
+	 *
+	 * @param path The path
+	 * @return The route station code
+	 */
+	public static String routeStationCode(Path path) {
+		StringBuilder code = new StringBuilder();
+		for (Station s : path.getStations()) {
+			if (code.length() > 0)
+				code.append('-');
+			code.append(s.getID());
+		}
+		return code.toString();
+	}
+
+	/**
+	 * The lines taken by the path joined by "-", a transfer inside the path
+	 * starts a new line, a transfer at either end does not
+	 *
+	 * @param path The path
+	 * @return The route line code
+	 */
+	public static String routeLineCode(Path path) {
+		ArrayList<Station> stations = path.getStations();
+		ArrayList<Line> lines = path.getLines();
+
+		// find the transfers inside the path
+		List<Integer> tList = new ArrayList<>();
+		for (int j = 1; j < lines.size() - 1; ++j)
+			if (lines.get(j).getDir() == -1)
+				tList.add(j);
+
+		StringBuilder code = new StringBuilder();
+		if (tList.isEmpty()) {
+			code.append(stations.get(lines.size() - 1).getLine().getID());
+		} else {
+			for (int t : tList)
+				code.append(lines.get(t).getStart().getLine().getID()).append('-');
+			code.append(stations.get(tList.get(tList.size() - 1) + 1).getLine().getID());
+		}
+		return code.toString();
+	}
+
+	/**
+	 * Print the row of a path
+	 *
+	 * @param fout   Output
+	 * @param origin ID of the origin station
+	 * @param dest   ID of the destination station
+	 * @param rank   Rank of the path, starting at 1
+	 * @param path   The path
+	 */
+	public static void print(PrintWriter fout, int origin, int dest, int rank, Path path) {
+		fout.printf("%s,%s,%d,%s,%s,%d,%.2f\n", origin, dest, rank, routeLineCode(path), routeStationCode(path),
+				path.getDist(), path.getImpedance() / 60);
+	}
+
+	/**
+	 * Print the rows of all paths from one origin, skipping the origin itself
+	 *
+	 * @param fout   Output
+	 * @param origin Index of the origin station
+	 * @param paths  The paths indexed by destination station
+	 * @param graph  The graph the indices refer to
+	 */
+	public static void print(PrintWriter fout, int origin, Path[][] paths, CompactGraph graph) {
+		for (int end = 0; end < paths.length; ++end)
+			if (end != origin)
+				for (int i = 0; i < paths[end].length; ++i)
+					print(fout, graph.stationID(origin), graph.stationID(end), i + 1, paths[end][i]);
+	}
+
+	/**
+	 * The route line code of a route given as station indices, see
+	 * routeLineCode(Path)
+	 *
+	 * @param route The station indices of the route
+	 * @param graph The graph the indices refer to
+	 * @return The route line code
+	 */
+	public static String routeLineCode(int[] route, CompactGraph graph) {
+		int lines = route.length - 1;
+
+		StringBuilder code = new StringBuilder();
+		int lastTransfer = -1;
+		for (int j = 1; j < lines - 1; ++j)
+			if (graph.isTransfer(graph.findEdge(route[j], route[j + 1]))) {
+				code.append(graph.trackID(route[j])).append('-');
+				lastTransfer = j;
+			}
+
+		if (lastTransfer < 0)
+			code.append(graph.trackID(route[lines - 1]));
+		else
+			code.append(graph.trackID(route[lastTransfer + 1]));
+		return code.toString();
+	}
+
+	/**
+	 * The route station code of a route given as station indices
+	 *
+	 * @param route The station indices of the route
+	 * @param graph The graph the indices refer to
+	 * @return The route station code
+	 */
+	public static String routeStationCode(int[] route, CompactGraph graph) {
+		StringBuilder code = new StringBuilder();
+		for (int i = 0; i < route.length; ++i) {
+			if (i > 0)
+				code.append('-');
+			code.append(graph.stationID(route[i]));
+		}
+		return code.toString();
+	}
+
+	/**
+	 * Print the row of a stored path
+	 *
+	 * @param fout  Output
+	 * @param store The stored paths
+	 * @param path  ID of the path in the store
+	 * @param rank  Rank of the path, starting at 1
+	 */
+	public static void print(PrintWriter fout, PathStore store, int path, int rank) {
+		CompactGraph graph = store.getGraph();
+		int[] route = store.route(path);
+		fout.printf("%s,%s,%d,%s,%s,%d,%.2f\n", graph.stationID(route[0]), graph.stationID(route[route.length - 1]),
+				rank, routeLineCode(route, graph), routeStationCode(route, graph), store.time(path),
+				store.impedance(path) / 60);
+	}
+}
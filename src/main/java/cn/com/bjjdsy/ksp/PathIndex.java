@@ -0,0 +1,92 @@
+package cn.com.bjjdsy.ksp;
+
+/**
+ * Reverse index from every connection to the stored paths using it
+ *
+ * The path IDs of every edge are kept in one array, grouped by edge like the
+ * adjacency of CompactGraph, so the index takes one int per connection of
+ * every stored path.
+ *
+ */
+public final class PathIndex {
+	private final PathStore store;
+
+	// paths of edge e are paths[offsets[e]] .. paths[offsets[e + 1] - 1]
+	private final int[] offsets;
+	private final int[] paths;
+
+	/**
+	 * Builds the index of all the paths of a store
+	 *
+	 * @param store The stored paths
+	 */
+	public PathIndex(PathStore store) {
+		this.store = store;
+		CompactGraph graph = store.getGraph();
+		int stations = graph.getNodes();
+
+		// the live paths, a recomputed origin leaves its old paths behind
+		int[] live = new int[store.size()];
+		int count = 0;
+		for (int origin = 0; origin < stations; ++origin)
+			for (int end = 0; end < stations; ++end)
+				for (int rank = 0; rank < store.count(origin, end); ++rank)
+					live[count++] = store.path(origin, end, rank);
+
+		// count the paths of every edge, then fill them in
+		offsets = new int[graph.getEdges() + 1];
+		for (int i = 0; i < count; ++i)
+			for (int j = 1; j < store.length(live[i]); ++j)
+				offsets[edge(graph, live[i], j) + 1]++;
+		for (int e = 0; e < graph.getEdges(); ++e)
+			offsets[e + 1] += offsets[e];
+
+		paths = new int[offsets[graph.getEdges()]];
+		int[] fill = offsets.clone();
+		for (int i = 0; i < count; ++i)
+			for (int j = 1; j < store.length(live[i]); ++j)
+				paths[fill[edge(graph, live[i], j)]++] = live[i];
+	}
+
+	/**
+	 * The edge from the (j - 1)-th to the j-th station of a path
+	 */
+	private int edge(CompactGraph graph, int path, int j) {
+		return graph.findEdge(store.node(path, j - 1), store.node(path, j));
+	}
+
+	/**
+	 * @return the indexed store
+	 */
+	public PathStore getStore() {
+		return store;
+	}
+
+	/**
+	 * @param e Edge index
+	 * @return The number of stored paths using the edge
+	 */
+	public int count(int e) {
+		return offsets[e + 1] - offsets[e];
+	}
+
+	/**
+	 * @param e Edge index
+	 * @param i Position in the paths of the edge
+	 * @return The path ID of the i-th path using the edge
+	 */
+	public int path(int e, int i) {
+		return paths[offsets[e] + i];
+	}
+
+	/**
+	 * Mark the origins of the paths using an edge
+	 *
+	 * @param e       Edge index
+	 * @param origins Set to true for every origin found
+	 */
+	public void markOrigins(int e, boolean[] origins) {
+		for (int i = offsets[e]; i < offsets[e + 1]; ++i)
+			origins[store.node(paths[i], 0)] = true;
+	}
+}
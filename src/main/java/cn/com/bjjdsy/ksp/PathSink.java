@@ -0,0 +1,20 @@
+package cn.com.bjjdsy.ksp;
+
+import java.io.Closeable;
+
+/**
+ * Receives the paths of every origin while they are being generated
+ *
+ */
+public interface PathSink extends Closeable {
+	/**
+	 * Take the paths of one origin, they are not used by the caller afterwards
+	 *
+	 * @param origin Index of the origin station
+	 * @param paths  The paths indexed by destination station, in rank order
+	 */
+	void accept(int origin, Path[][] paths);
+
+	@Override
+	void close();
+}
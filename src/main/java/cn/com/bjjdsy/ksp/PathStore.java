@@ -0,0 +1,234 @@
+package cn.com.bjjdsy.ksp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Compact storage of the generated paths
+ *
+ * Every path is stored as the sequence of its station indices in one large int
+ * array, optionally off the heap in a direct buffer of at most 2 GB, with its
+ * time and impedance in primitive columns. The paths of an (origin,
+ * destination) pair are consecutive, so a path is found by (origin,
+ * destination, rank) through two offset tables. The paths of one origin are
+ * added together and origins may be added in any order from several threads,
+ * the accessors are used once all of them have been added.
+ *
+ */
+public final class PathStore implements PathSink {
+	private static final int INITIAL_PATHS = 1 << 12;
+	private static final int INITIAL_NODES = 1 << 16;
+
+	// the most station indices an array or a direct buffer holds
+	private static final int MAX_HEAP_NODES = Integer.MAX_VALUE - 8;
+	private static final int MAX_DIRECT_NODES = MAX_HEAP_NODES / Integer.BYTES;
+
+	private final CompactGraph graph;
+	private final int stations;
+	private final boolean offHeap;
+
+	// first path and number of paths of every (origin, destination)
+	private final int[] odFirst;
+	private final int[] odCount;
+
+	// the path columns, route of path p is routeOffsets[p] .. routeOffsets[p + 1] - 1
+	private int paths;
+	private int[] routeOffsets;
+	private int[] times;
+	private double[] impedances;
+
+	// the station indices of all the routes
+	private int used;
+	private int[] heapNodes;
+	private IntBuffer directNodes;
+
+	/**
+	 * Constructor for an empty store
+	 *
+	 * @param graph   The graph the paths run on
+	 * @param offHeap Keep the routes in a direct buffer outside the heap
+	 */
+	public PathStore(CompactGraph graph, boolean offHeap) {
+		this.graph = graph;
+		this.stations = graph.getNodes();
+		this.offHeap = offHeap;
+
+		odFirst = new int[stations * stations];
+		odCount = new int[stations * stations];
+
+		routeOffsets = new int[INITIAL_PATHS + 1];
+		times = new int[INITIAL_PATHS];
+		impedances = new double[INITIAL_PATHS];
+
+		if (offHeap)
+			directNodes = allocate(INITIAL_NODES);
+		else
+			heapNodes = new int[INITIAL_NODES];
+	}
+
+	private static IntBuffer allocate(int capacity) {
+		long bytes = (long) capacity * Integer.BYTES;
+		if (bytes > MAX_HEAP_NODES)
+			throw new IllegalStateException("A direct buffer cannot hold " + capacity + " stations.");
+		return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+
+	@Override
+	public synchronized void accept(int origin, Path[][] found) {
+		for (int end = 0; end < found.length; ++end) {
+			int od = origin * stations + end;
+			odFirst[od] = paths;
+			odCount[od] = found[end].length;
+
+			for (Path p : found[end]) {
+				ensurePaths(paths + 1);
+				ensureNodes(used + p.getStations().size());
+
+				for (Station s : p.getStations())
+					putNode(used++, graph.indexOf(s.getID()));
+
+				times[paths] = p.getDist();
+				impedances[paths] = p.getImpedance();
+				routeOffsets[++paths] = used;
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+	}
+
+	private void ensurePaths(int capacity) {
+		if (capacity <= times.length)
+			return;
+
+		int size = Math.max(capacity, times.length * 2);
+		routeOffsets = Arrays.copyOf(routeOffsets, size + 1);
+		times = Arrays.copyOf(times, size);
+		impedances = Arrays.copyOf(impedances, size);
+	}
+
+	private void ensureNodes(long capacity) {
+		int length = offHeap ? directNodes.capacity() : heapNodes.length;
+		if (capacity <= length)
+			return;
+		int max = offHeap ? MAX_DIRECT_NODES : MAX_HEAP_NODES;
+		if (capacity > max)
+			throw new IllegalStateException("Too many stations in the stored paths, at most " + max
+					+ (offHeap ? " off the heap." : "."));
+
+		int size = (int) Math.min(Math.max(capacity, (long) length * 2), max);
+		if (offHeap) {
+			IntBuffer grown = allocate(size);
+			IntBuffer old = directNodes.duplicate();
+			old.limit(used);
+			old.position(0);
+			grown.put(old);
+			directNodes = grown;
+		} else {
+			heapNodes = Arrays.copyOf(heapNodes, size);
+		}
+	}
+
+	private void putNode(int pos, int node) {
+		if (offHeap)
+			directNodes.put(pos, node);
+		else
+			heapNodes[pos] = node;
+	}
+
+	/**
+	 * @return the graph the paths run on
+	 */
+	public CompactGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * @return the total number of paths stored
+	 */
+	public int size() {
+		return paths;
+	}
+
+	/**
+	 * @param origin Index of the origin station
+	 * @param dest   Index of the destination station
+	 * @return The number of paths between the stations
+	 */
+	public int count(int origin, int dest) {
+		return odCount[origin * stations + dest];
+	}
+
+	/**
+	 * Find a stored path
+	 *
+	 * @param origin Index of the origin station
+	 * @param dest   Index of the destination station
+	 * @param rank   Rank of the path, starting at 0
+	 * @return The path ID used by the other accessors
+	 */
+	public int path(int origin, int dest, int rank) {
+		int od = origin * stations + dest;
+		if (rank < 0 || rank >= odCount[od])
+			throw new IndexOutOfBoundsException("No path of rank " + rank);
+		return odFirst[od] + rank;
+	}
+
+	/**
+	 * @param path Path ID
+	 * @return The time of the path
+	 */
+	public int time(int path) {
+		return times[path];
+	}
+
+	/**
+	 * @param path Path ID
+	 * @return The impedance of the path
+	 */
+	public double impedance(int path) {
+		return impedances[path];
+	}
+
+	/**
+	 * @param path Path ID
+	 * @return The number of stations of the path
+	 */
+	public int length(int path) {
+		return routeOffsets[path + 1] - routeOffsets[path];
+	}
+
+	/**
+	 * @param path Path ID
+	 * @param i    Position in the path
+	 * @return The index of the i-th station of the path
+	 */
+	public int node(int path, int i) {
+		int pos = routeOffsets[path] + i;
+		return offHeap ? directNodes.get(pos) : heapNodes[pos];
+	}
+
+	/**
+	 * @param path Path ID
+	 * @return The station indices of the path
+	 */
+	public int[] route(int path) {
+		int[] route = new int[length(path)];
+		for (int i = 0; i < route.length; ++i)
+			route[i] = node(path, i);
+		return route;
+	}
+
+	/**
+	 * Rebuild a stored path as a Path object
+	 *
+	 * @param path Path ID
+	 * @return The path
+	 */
+	public Path toPath(int path) {
+		return graph.toPath(route(path), time(path), impedance(path));
+	}
+}
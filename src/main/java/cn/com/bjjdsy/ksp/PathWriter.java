@@ -0,0 +1,274 @@
+package cn.com.bjjdsy.ksp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the rows of the paths in the printPaths format, formatting the
+ * origins in parallel
+ *
+ * Every origin is encoded straight into bytes on a pool, and the chunks are
+ * written in origin order through a FileChannel, so the file is the same as
+ * the one PathFormat prints. With gzip every chunk is compressed on the pool
+ * as its own gzip member; a file of concatenated members reads back as one
+ * stream with gunzip or GZIPInputStream.
+ *
+ */
+public class PathWriter implements PathSink {
+	// the decimal separator printf uses
+	private static final byte POINT = (byte) DecimalFormatSymbols
+			.getInstance(Locale.getDefault(Locale.Category.FORMAT)).getDecimalSeparator();
+
+	private final FileChannel channel;
+	private final CompactGraph graph;
+	private final boolean gzip;
+	private final ExecutorService pool;
+	private final int window;
+
+	// the chunks being formatted, in origin order
+	private final ArrayDeque<Future<ByteBuffer>> pending = new ArrayDeque<>();
+
+	/**
+	 * Constructor for the writer
+	 *
+	 * @param file    The output file
+	 * @param graph   The graph the indices refer to
+	 * @param threads Number of formatting threads
+	 * @param gzip    Compress the output
+	 * @throws UncheckedIOException If the file cannot be created
+	 */
+	public PathWriter(File file, CompactGraph graph, int threads, boolean gzip) {
+		if (threads < 1)
+			throw new IllegalArgumentException("threads must be positive");
+
+		try {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot create " + file, e);
+		}
+		this.graph = graph;
+		this.gzip = gzip;
+		this.pool = Executors.newFixedThreadPool(threads);
+		this.window = threads * 4;
+	}
+
+	/**
+	 * Write all the paths of a store
+	 *
+	 * @param store   The stored paths
+	 * @param file    The output file
+	 * @param threads Number of formatting threads
+	 * @param gzip    Compress the output
+	 */
+	public static void write(PathStore store, File file, int threads, boolean gzip) {
+		try (PathWriter writer = new PathWriter(file, store.getGraph(), threads, gzip)) {
+			for (int origin = 0; origin < store.getGraph().getNodes(); ++origin) {
+				int start = origin;
+				writer.submit(() -> writer.encode(start, store));
+			}
+		}
+	}
+
+	@Override
+	public void accept(int origin, Path[][] paths) {
+		submit(() -> encode(origin, paths));
+	}
+
+	/**
+	 * Queue the formatting of a chunk and write the chunks that are due
+	 */
+	private void submit(Callable<byte[]> chunk) {
+		pending.add(pool.submit(() -> finish(chunk.call())));
+		while (pending.size() > window)
+			writeNext();
+	}
+
+	/**
+	 * Compress a chunk if asked
+	 */
+	private ByteBuffer finish(byte[] rows) throws IOException {
+		if (!gzip)
+			return ByteBuffer.wrap(rows);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(rows.length / 4 + 64);
+		try (GZIPOutputStream out = new GZIPOutputStream(bytes, 1 << 16)) {
+			out.write(rows);
+		}
+		return ByteBuffer.wrap(bytes.toByteArray());
+	}
+
+	/**
+	 * Wait for the oldest chunk and write it
+	 */
+	private void writeNext() {
+		try {
+			ByteBuffer chunk = pending.poll().get();
+			while (chunk.hasRemaining())
+				channel.write(chunk);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Writing the paths was interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Formatting the paths failed", e.getCause());
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot write the paths", e);
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			while (!pending.isEmpty())
+				writeNext();
+		} finally {
+			pool.shutdownNow();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Cannot write the paths", e);
+			}
+		}
+	}
+
+	/**
+	 * The rows of the paths of one origin, skipping the origin itself
+	 */
+	private byte[] encode(int origin, Path[][] paths) {
+		Rows rows = new Rows();
+		for (int end = 0; end < paths.length; ++end) {
+			if (end == origin)
+				continue;
+			for (int i = 0; i < paths[end].length; ++i) {
+				Path p = paths[end][i];
+				int[] route = new int[p.getStations().size()];
+				for (int j = 0; j < route.length; ++j)
+					route[j] = graph.indexOf(p.getStations().get(j).getID());
+				rows.row(graph, origin, end, i + 1, route, p.getDist(), p.getImpedance());
+			}
+		}
+		return rows.toArray();
+	}
+
+	/**
+	 * The rows of the stored paths of one origin, skipping the origin itself
+	 */
+	private byte[] encode(int origin, PathStore store) {
+		Rows rows = new Rows();
+		for (int end = 0; end < graph.getNodes(); ++end) {
+			if (end == origin)
+				continue;
+			for (int i = 0; i < store.count(origin, end); ++i) {
+				int path = store.path(origin, end, i);
+				rows.row(graph, origin, end, i + 1, store.route(path), store.time(path), store.impedance(path));
+			}
+		}
+		return rows.toArray();
+	}
+
+	/**
+	 * A growing buffer of rows
+	 */
+	static final class Rows {
+		private byte[] bytes = new byte[1 << 14];
+		private int size;
+
+		/**
+		 * origin,destination,rank,routeLineCode,routeStationCode,time,impedance
+		 */
+		void row(CompactGraph graph, int origin, int dest, int rank, int[] route, int time, double impedance) {
+			number(graph.stationID(origin));
+			put((byte) ',');
+			number(graph.stationID(dest));
+			put((byte) ',');
+			number(rank);
+			put((byte) ',');
+
+			// the route line code, see PathFormat.routeLineCode
+			int lines = route.length - 1;
+			int lastTransfer = -1;
+			for (int j = 1; j < lines - 1; ++j)
+				if (graph.isTransfer(graph.findEdge(route[j], route[j + 1]))) {
+					number(graph.trackID(route[j]));
+					put((byte) '-');
+					lastTransfer = j;
+				}
+			number(graph.trackID(lastTransfer < 0 ? route[lines - 1] : route[lastTransfer + 1]));
+			put((byte) ',');
+
+			// the route station code
+			for (int i = 0; i < route.length; ++i) {
+				if (i > 0)
+					put((byte) '-');
+				number(graph.stationID(route[i]));
+			}
+			put((byte) ',');
+
+			number(time);
+			put((byte) ',');
+			minutes(impedance / 60);
+			put((byte) '\n');
+		}
+
+		private void put(byte b) {
+			if (size == bytes.length)
+				bytes = Arrays.copyOf(bytes, size * 2);
+			bytes[size++] = b;
+		}
+
+		private void number(long value) {
+			if (value < 0) {
+				put((byte) '-');
+				value = -value;
+			}
+			if (value >= 10)
+				number(value / 10);
+			put((byte) ('0' + value % 10));
+		}
+
+		/**
+		 * The value with two decimals like printf("%.2f"), which rounds half up
+		 * on the shortest decimal form of the double. Only values close to a tie
+		 * or too large for value * 100 to be that close to the decimal form go
+		 * through printf.
+		 */
+		void minutes(double value) {
+			double scaled = value * 100;
+			double fraction = scaled - Math.floor(scaled);
+			if (!(Math.abs(value) < 1e7) || Math.abs(fraction - 0.5) < 1e-6) {
+				for (byte b : String.format("%.2f", value).getBytes())
+					put(b);
+				return;
+			}
+
+			long cents = Math.round(scaled);
+			if (cents < 0 || cents == 0 && (1 / value) < 0) {
+				put((byte) '-');
+				cents = -cents;
+			}
+			number(cents / 100);
+			put(POINT);
+			put((byte) ('0' + cents / 10 % 10));
+			put((byte) ('0' + cents % 10));
+		}
+
+		byte[] toArray() {
+			return Arrays.copyOf(bytes, size);
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package cn.com.bjjdsy.ksp;
+
+import java.util.Arrays;
+
+/**
+ * Hands the first paths of every OD pair to several sinks, each with its own
+ * number of paths, so one search at the largest number serves all of them
+ *
+ * The sinks share the path objects and must not change them.
+ *
+ */
+public class RankPrefixSink implements PathSink {
+	private final int[] numbers;
+	private final PathSink[] sinks;
+
+	/**
+	 * Constructor for the sink
+	 *
+	 * @param numbers The number of paths of every sink
+	 * @param sinks   The sinks, closed with this one
+	 */
+	public RankPrefixSink(int[] numbers, PathSink[] sinks) {
+		if (numbers.length != sinks.length)
+			throw new IllegalArgumentException("One number of paths per sink is needed.");
+		for (int k : numbers)
+			if (k < 1)
+				throw new IllegalArgumentException("The number of paths must be positive.");
+
+		this.numbers = numbers.clone();
+		this.sinks = sinks.clone();
+	}
+
+	@Override
+	public void accept(int origin, Path[][] paths) {
+		for (int i = 0; i < sinks.length; ++i)
+			sinks[i].accept(origin, prefix(paths, numbers[i]));
+	}
+
+	/**
+	 * The first paths of every destination
+	 *
+	 * @param paths  The paths indexed by destination station, in rank order
+	 * @param number The number of paths kept
+	 * @return The paths, the rows already short enough are shared
+	 */
+	public static Path[][] prefix(Path[][] paths, int number) {
+		Path[][] first = new Path[paths.length][];
+		for (int end = 0; end < paths.length; ++end) {
+			Path[] row = paths[end];
+			first[end] = row == null || row.length <= number ? row : Arrays.copyOf(row, number);
+		}
+		return first;
+	}
+
+	@Override
+	public void close() {
+		// close every sink even if one fails
+		RuntimeException failure = null;
+		for (PathSink sink : sinks) {
+			try {
+				sink.close();
+			} catch (RuntimeException e) {
+				if (failure == null)
+					failure = e;
+				else
+					failure.addSuppressed(e);
+			}
+		}
+		if (failure != null)
+			throw failure;
+	}
+}
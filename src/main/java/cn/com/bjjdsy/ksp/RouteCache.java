@@ -0,0 +1,220 @@
+package cn.com.bjjdsy.ksp;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Least recently used cache in front of the OD path queries of a graph
+ *
+ * The queries are keyed by origin, destination, number of paths and the
+ * profile in use. The cache holds at most maxPaths paths, dropping the least
+ * recently used queries first. Concurrent misses of one query wait for a
+ * single search. The whole cache is dropped once the version of the graph
+ * grows, when it is read again, takes another profile or a weight changes.
+ *
+ */
+public class RouteCache {
+	private final Graph graph;
+	private final long maxPaths;
+
+	// the queries in access order and the paths they hold
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+	private long paths;
+	private long version;
+
+	private long hits;
+	private long misses;
+	private long coalesced;
+	private long evictions;
+
+	/**
+	 * A query, done once its future is
+	 */
+	private static final class Entry {
+		final CompletableFuture<List<RouteResult>> routes = new CompletableFuture<>();
+		long weight = 1;
+	}
+
+	/**
+	 * Constructor for an empty cache
+	 *
+	 * @param graph    The graph queried
+	 * @param maxPaths The largest number of paths kept
+	 */
+	public RouteCache(Graph graph, long maxPaths) {
+		if (maxPaths < 1)
+			throw new IllegalArgumentException("The cache must hold at least one path.");
+
+		this.graph = graph;
+		this.maxPaths = maxPaths;
+		this.version = graph.getVersion();
+	}
+
+	/**
+	 * Get the paths between an OD pair, from the cache if possible. See
+	 * Graph.queryPaths.
+	 *
+	 * @param start  ID of the origin station
+	 * @param end    ID of the destination station
+	 * @param number The number of paths
+	 * @return The paths in rank order, shared with the other callers
+	 */
+	public List<RouteResult> get(int start, int end, int number) {
+		long current = graph.getVersion();
+		String key = start + "-" + end + "-" + number + "-" + graph.getProfile();
+
+		Entry entry = null;
+		boolean owner = false;
+		synchronized (this) {
+			if (current > version) {
+				clear();
+				version = current;
+			}
+
+			// a caller that read the version before a change searches without
+			// the cache, its paths may be of the graph before the change
+			if (current < version) {
+				misses++;
+			} else {
+				entry = entries.get(key);
+				if (entry == null) {
+					misses++;
+					entry = new Entry();
+					entries.put(key, entry);
+					paths += entry.weight;
+					owner = true;
+					evict();
+				} else if (entry.routes.isDone()) {
+					hits++;
+				} else {
+					coalesced++;
+				}
+			}
+		}
+
+		if (entry == null)
+			return List.copyOf(graph.queryPaths(start, end, number));
+		if (owner)
+			return search(key, entry, start, end, number, current);
+
+		try {
+			return entry.routes.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Query was interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException("Query failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Run the query of a new entry and hand its result to the callers waiting
+	 */
+	private List<RouteResult> search(String key, Entry entry, int start, int end, int number, long current) {
+		List<RouteResult> routes;
+		try {
+			routes = graph.queryPaths(start, end, number);
+		} catch (RuntimeException e) {
+			// a failed query is not kept
+			synchronized (this) {
+				remove(key, entry);
+			}
+			entry.routes.completeExceptionally(e);
+			throw e;
+		}
+
+		synchronized (this) {
+			if (graph.getVersion() != current) {
+				// the graph changed during the search
+				remove(key, entry);
+			} else if (entries.get(key) == entry) {
+				paths += Math.max(routes.size(), 1) - entry.weight;
+				entry.weight = Math.max(routes.size(), 1);
+				evict();
+			}
+		}
+		List<RouteResult> result = List.copyOf(routes);
+		entry.routes.complete(result);
+		return result;
+	}
+
+	private void remove(String key, Entry entry) {
+		if (entries.get(key) == entry) {
+			entries.remove(key);
+			paths -= entry.weight;
+		}
+	}
+
+	/**
+	 * Drop the least recently used queries past the limit, searches still
+	 * running are kept
+	 */
+	private void evict() {
+		Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+		while (paths > maxPaths && it.hasNext()) {
+			Entry e = it.next().getValue();
+			if (e.routes.isDone()) {
+				it.remove();
+				paths -= e.weight;
+				evictions++;
+			}
+		}
+	}
+
+	/**
+	 * Drop all the queries, the callers waiting for a search still get it
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		paths = 0;
+	}
+
+	/**
+	 * @return the number of queries kept
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the number of paths kept
+	 */
+	public synchronized long getPaths() {
+		return paths;
+	}
+
+	/**
+	 * @return the number of queries answered from the cache
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of queries searched
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the number of queries that waited for the same search of another
+	 *         caller
+	 */
+	public synchronized long getCoalesced() {
+		return coalesced;
+	}
+
+	/**
+	 * @return the number of queries dropped to make room
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+}
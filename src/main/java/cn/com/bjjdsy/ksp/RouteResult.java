@@ -0,0 +1,91 @@
+package cn.com.bjjdsy.ksp;
+
+/**
+ * One path of an OD query, encoded the same way as a row of printPath
+ *
+ */
+public final class RouteResult {
+	private final int origin;
+	private final int dest;
+	private final int rank;
+	private final String routeLineCode;
+	private final String routeStationCode;
+	private final int time;
+	private final double impedance;
+
+	/**
+	 * Constructor for a result
+	 *
+	 * @param origin ID of the origin station
+	 * @param dest   ID of the destination station
+	 * @param rank   Rank of the path, starting at 1
+	 * @param path   The path
+	 */
+	public RouteResult(int origin, int dest, int rank, Path path) {
+		this.origin = origin;
+		this.dest = dest;
+		this.rank = rank;
+		this.routeLineCode = PathFormat.routeLineCode(path);
+		this.routeStationCode = PathFormat.routeStationCode(path);
+		this.time = path.getDist();
+		this.impedance = path.getImpedance();
+	}
+
+	/**
+	 * @return the ID of the origin station
+	 */
+	public int getOrigin() {
+		return origin;
+	}
+
+	/**
+	 * @return the ID of the destination station
+	 */
+	public int getDest() {
+		return dest;
+	}
+
+	/**
+	 * @return the rank, starting at 1
+	 */
+	public int getRank() {
+		return rank;
+	}
+
+	/**
+	 * @return the lines taken joined by "-"
+	 */
+	public String getRouteLineCode() {
+		return routeLineCode;
+	}
+
+	/**
+	 * @return the stations passed joined by "-"
+	 */
+	public String getRouteStationCode() {
+		return routeStationCode;
+	}
+
+	/**
+	 * @return the time in seconds
+	 */
+	public int getTime() {
+		return time;
+	}
+
+	/**
+	 * @return the impedance in seconds
+	 */
+	public double getImpedance() {
+		return impedance;
+	}
+
+	/**
+	 * @return The row printPath writes for this path, without line end
+	 */
+	@Override
+	public String toString() {
+		return String.format("%s,%s,%d,%s,%s,%d,%.2f", origin, dest, rank, routeLineCode, routeStationCode, time,
+				impedance / 60);
+	}
+}
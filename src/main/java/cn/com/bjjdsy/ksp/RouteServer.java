@@ -0,0 +1,368 @@
+package cn.com.bjjdsy.ksp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * HTTP service answering OD path queries over a network loaded once
+ *
+ * GET /routes?origin=103&destination=423&k=5 returns the paths as JSON, with
+ * format=csv as the rows of printPath. deadline sets the milliseconds the
+ * client waits for the search, at most maxDeadline. GET /stats returns the
+ * request counters and the latency percentiles of the last requests served.
+ * Repeated queries are answered from a RouteCache when one is given.
+ *
+ * The searches run on their own pool. At most maxInFlight searches are
+ * running or waiting at once, the requests past that are refused with 503
+ * instead of queueing. A search past its deadline answers 504 and keeps its
+ * place until it ends, since the search cannot be stopped halfway.
+ *
+ */
+public class RouteServer implements Closeable {
+	// latencies kept for the percentiles
+	private static final int LATENCY_WINDOW = 10000;
+
+	private final Graph graph;
+	private final RouteCache cache;
+	private final int maxK;
+	private final long defaultDeadline;
+	private final long maxDeadline;
+
+	private final HttpServer server;
+	private final ExecutorService handlers;
+	private final ExecutorService searches;
+	private final Semaphore admission;
+
+	private final AtomicLong served = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong timedOut = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	// the latest latencies in nanoseconds, as a ring
+	private final long[] latencies = new long[LATENCY_WINDOW];
+	private long latencyCount;
+
+	/**
+	 * Constructor for a server, started by start()
+	 *
+	 * @param graph           The network, already read
+	 * @param address         The address to listen on
+	 * @param threads         Number of searches running at once
+	 * @param maxInFlight     Number of searches running or waiting at once
+	 * @param maxK            Largest number of paths a query may ask for
+	 * @param defaultDeadline Milliseconds a query waits without deadline given
+	 * @param maxDeadline     Largest number of milliseconds a query may wait,
+	 *                        longer deadlines are cut to it
+	 * @param cachePaths      Number of paths kept in the cache, 0 for no cache
+	 * @throws IOException If the address cannot be bound
+	 */
+	public RouteServer(Graph graph, InetSocketAddress address, int threads, int maxInFlight, int maxK,
+			long defaultDeadline, long maxDeadline, long cachePaths) throws IOException {
+		if (threads < 1 || maxInFlight < threads || maxK < 1 || defaultDeadline < 1 || maxDeadline < defaultDeadline)
+			throw new IllegalArgumentException("Invalid server limits.");
+
+		this.graph = graph;
+		this.cache = cachePaths > 0 ? new RouteCache(graph, cachePaths) : null;
+		this.maxK = maxK;
+		this.defaultDeadline = defaultDeadline;
+		this.maxDeadline = maxDeadline;
+
+		// the handlers only wait for the searches, there are enough of them to
+		// refuse the requests past the limit right away
+		handlers = Executors.newFixedThreadPool(maxInFlight * 2);
+		searches = Executors.newFixedThreadPool(threads);
+		admission = new Semaphore(maxInFlight);
+
+		server = HttpServer.create(address, 0);
+		server.setExecutor(handlers);
+		server.createContext("/routes", this::routes);
+		server.createContext("/stats", this::stats);
+	}
+
+	/**
+	 * Start answering requests
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * @return the port listened on
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Stop the server, the requests being answered get a second to finish
+	 */
+	@Override
+	public void close() {
+		server.stop(1);
+		handlers.shutdownNow();
+		searches.shutdownNow();
+	}
+
+	/**
+	 * Answer a path query
+	 */
+	private void routes(HttpExchange exchange) throws IOException {
+		long begin = System.nanoTime();
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				send(exchange, 405, "application/json", error("Only GET is supported."));
+				return;
+			}
+
+			// the query
+			Map<String, String> params = parameters(exchange.getRequestURI().getRawQuery());
+			int origin = intParameter(params, "origin", -1);
+			int destination = intParameter(params, "destination", -1);
+			int k = intParameter(params, "k", 1);
+			long deadline = intParameter(params, "deadline", (int) Math.min(defaultDeadline, Integer.MAX_VALUE));
+			String format = params.getOrDefault("format", "json");
+			if (origin < 0 || destination < 0)
+				throw new IllegalArgumentException("origin and destination are required.");
+			if (k < 1 || k > maxK)
+				throw new IllegalArgumentException("k must be between 1 and " + maxK + ".");
+			if (deadline < 1)
+				throw new IllegalArgumentException("deadline must be positive.");
+			deadline = Math.min(deadline, maxDeadline);
+			if (!format.equals("json") && !format.equals("csv"))
+				throw new IllegalArgumentException("format must be json or csv.");
+
+			// refuse rather than queue past the limit
+			if (!admission.tryAcquire()) {
+				rejected.incrementAndGet();
+				exchange.getResponseHeaders().set("Retry-After", "1");
+				send(exchange, 503, "application/json", error("Too many queries in flight."));
+				return;
+			}
+
+			Future<List<RouteResult>> search;
+			try {
+				search = searches.submit(() -> {
+					try {
+						return cache != null ? cache.get(origin, destination, k)
+								: graph.queryPaths(origin, destination, k);
+					} finally {
+						admission.release();
+					}
+				});
+			} catch (RuntimeException e) {
+				admission.release();
+				throw e;
+			}
+
+			List<RouteResult> routes;
+			try {
+				routes = search.get(deadline, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				timedOut.incrementAndGet();
+				send(exchange, 504, "application/json", error("Deadline of " + deadline + " ms passed."));
+				return;
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IllegalArgumentException)
+					throw (IllegalArgumentException) e.getCause();
+				throw e;
+			}
+
+			if (format.equals("csv"))
+				send(exchange, 200, "text/csv; charset=utf-8", csv(routes));
+			else
+				send(exchange, 200, "application/json", json(origin, destination, k, routes));
+			served.incrementAndGet();
+			record(System.nanoTime() - begin);
+		} catch (IllegalArgumentException e) {
+			send(exchange, 400, "application/json", error(e.getMessage()));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failed.incrementAndGet();
+			send(exchange, 503, "application/json", error("Server shutting down."));
+		} catch (ExecutionException | RuntimeException e) {
+			failed.incrementAndGet();
+			send(exchange, 500, "application/json", error("Query failed."));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Answer the counters and the latency percentiles
+	 */
+	private void stats(HttpExchange exchange) throws IOException {
+		try {
+			long[] window;
+			synchronized (latencies) {
+				window = Arrays.copyOf(latencies, (int) Math.min(latencyCount, LATENCY_WINDOW));
+			}
+			Arrays.sort(window);
+
+			StringBuilder out = new StringBuilder();
+			out.append("{\"served\":").append(served.get());
+			out.append(",\"rejected\":").append(rejected.get());
+			out.append(",\"timedOut\":").append(timedOut.get());
+			out.append(",\"failed\":").append(failed.get());
+			out.append(",\"available\":").append(admission.availablePermits());
+			if (cache != null) {
+				out.append(",\"cache\":{\"queries\":").append(cache.size());
+				out.append(",\"paths\":").append(cache.getPaths());
+				out.append(",\"hits\":").append(cache.getHits());
+				out.append(",\"misses\":").append(cache.getMisses());
+				out.append(",\"coalesced\":").append(cache.getCoalesced());
+				out.append(",\"evictions\":").append(cache.getEvictions());
+				out.append('}');
+			}
+			out.append(",\"latencyMillis\":{\"count\":").append(window.length);
+			out.append(",\"p50\":").append(percentile(window, 50));
+			out.append(",\"p90\":").append(percentile(window, 90));
+			out.append(",\"p99\":").append(percentile(window, 99));
+			out.append(",\"max\":").append(percentile(window, 100));
+			out.append("}}\n");
+			send(exchange, 200, "application/json", out.toString());
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Keep the latency of a request served
+	 */
+	private void record(long nanos) {
+		synchronized (latencies) {
+			latencies[(int) (latencyCount++ % LATENCY_WINDOW)] = nanos;
+		}
+	}
+
+	/**
+	 * A percentile of sorted latencies, in milliseconds
+	 */
+	private static String percentile(long[] sorted, int percent) {
+		if (sorted.length == 0)
+			return "0";
+		int i = Math.max((int) Math.ceil(sorted.length * percent / 100.0) - 1, 0);
+		return String.format(Locale.ROOT, "%.3f", sorted[i] / 1e6);
+	}
+
+	/**
+	 * The rows of the paths, as printPath writes them
+	 */
+	private static String csv(List<RouteResult> routes) {
+		StringBuilder out = new StringBuilder();
+		for (RouteResult r : routes)
+			out.append(r).append('\n');
+		return out.toString();
+	}
+
+	/**
+	 * The paths as JSON, the impedance in minutes like the rows
+	 */
+	private static String json(int origin, int destination, int k, List<RouteResult> routes) {
+		StringBuilder out = new StringBuilder();
+		out.append("{\"origin\":").append(origin);
+		out.append(",\"destination\":").append(destination);
+		out.append(",\"k\":").append(k);
+		out.append(",\"routes\":[");
+		for (int i = 0; i < routes.size(); ++i) {
+			RouteResult r = routes.get(i);
+			if (i > 0)
+				out.append(',');
+			out.append("{\"rank\":").append(r.getRank());
+			out.append(",\"routeLineCode\":\"").append(r.getRouteLineCode()).append('"');
+			out.append(",\"routeStationCode\":\"").append(r.getRouteStationCode()).append('"');
+			out.append(",\"time\":").append(r.getTime());
+			out.append(",\"impedance\":").append(String.format(Locale.ROOT, "%.2f", r.getImpedance() / 60));
+			out.append('}');
+		}
+		out.append("]}\n");
+		return out.toString();
+	}
+
+	private static String error(String message) {
+		return "{\"error\":\"" + message.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}\n";
+	}
+
+	private static void send(HttpExchange exchange, int status, String type, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", type);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * The parameters of a query string
+	 */
+	private static Map<String, String> parameters(String query) {
+		Map<String, String> params = new HashMap<>();
+		if (query == null)
+			return params;
+
+		try {
+			for (String pair : query.split("&")) {
+				int eq = pair.indexOf('=');
+				if (eq > 0)
+					params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+							URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+			}
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		return params;
+	}
+
+	private static int intParameter(Map<String, String> params, String name, int missing) {
+		String value = params.get(name);
+		if (value == null)
+			return missing;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(name + " must be an integer.");
+		}
+	}
+
+	/**
+	 * Load the network from the working directory and serve it
+	 *
+	 * @param args The port, 8080 if not given, and the number of searches
+	 *             running at once
+	 * @throws IOException If the port cannot be bound
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+		Graph g = new Graph();
+		g.readGraph(new File(Graph.SNAPSHOT));
+
+		RouteServer server = new RouteServer(g, new InetSocketAddress(port), threads, threads * 16, 100, 2000, 10000,
+				1000000);
+		Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+		server.start();
+		System.out.printf("Answering path queries on port %d\n", server.getPort());
+	}
+}
@@ -0,0 +1,78 @@
+package cn.com.bjjdsy.ksp;
+
+/**
+ * Limits on the paths kept in a choice set
+ *
+ * A path to a destination is kept only if its impedance is at most maxRatio
+ * times the impedance of the shortest path to that destination and at most
+ * maxExtraMinutes above it, and if it transfers at most maxTransfers times.
+ * The shortest path is the shortest one within the transfer limit.
+ *
+ */
+public final class SearchBounds {
+	/**
+	 * No limits, every path is kept
+	 */
+	public static final SearchBounds NONE = new SearchBounds(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+			Integer.MAX_VALUE);
+
+	private final double maxRatio;
+	private final double maxExtraMinutes;
+	private final int maxTransfers;
+
+	/**
+	 * Constructor for the limits
+	 *
+	 * @param maxRatio        Largest impedance relative to the shortest path
+	 * @param maxExtraMinutes Largest impedance above the shortest path, in
+	 *                        minutes
+	 * @param maxTransfers    Largest number of transfers
+	 */
+	public SearchBounds(double maxRatio, double maxExtraMinutes, int maxTransfers) {
+		if (!(maxRatio >= 1) || !(maxExtraMinutes >= 0) || maxTransfers < 0)
+			throw new IllegalArgumentException("Invalid search bounds.");
+
+		this.maxRatio = maxRatio;
+		this.maxExtraMinutes = maxExtraMinutes;
+		this.maxTransfers = maxTransfers;
+	}
+
+	/**
+	 * @return the largest impedance relative to the shortest path
+	 */
+	public double getMaxRatio() {
+		return maxRatio;
+	}
+
+	/**
+	 * @return the largest impedance above the shortest path, in minutes
+	 */
+	public double getMaxExtraMinutes() {
+		return maxExtraMinutes;
+	}
+
+	/**
+	 * @return the largest number of transfers
+	 */
+	public int getMaxTransfers() {
+		return maxTransfers;
+	}
+
+	/**
+	 * @return If the limits can reject a path
+	 */
+	public boolean isBounded() {
+		return maxRatio != Double.POSITIVE_INFINITY || maxExtraMinutes != Double.POSITIVE_INFINITY
+				|| maxTransfers != Integer.MAX_VALUE;
+	}
+
+	/**
+	 * The largest impedance kept for a destination
+	 *
+	 * @param shortest The impedance of the shortest path to the destination
+	 * @return The limit on the impedance
+	 */
+	public double limit(double shortest) {
+		return Math.min(shortest * maxRatio, shortest + maxExtraMinutes * 60);
+	}
+}
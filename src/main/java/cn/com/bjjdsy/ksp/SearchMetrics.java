@@ -0,0 +1,182 @@
+package cn.com.bjjdsy.ksp;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Collects the counters of the searches of an engine
+ *
+ * The last search of every origin is kept, so a recomputed origin replaces
+ * its earlier counters. The collector is safe to share between the threads of
+ * a run.
+ *
+ */
+public final class SearchMetrics {
+	// the allocation counter of the current thread, null if the JVM has none
+	private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+	private final CompactGraph graph;
+	private final SearchStats[] latest;
+	private long searches;
+
+	/**
+	 * Constructor for an empty collector
+	 *
+	 * @param graph The graph searched
+	 */
+	public SearchMetrics(CompactGraph graph) {
+		this.graph = graph;
+		latest = new SearchStats[graph.getNodes()];
+	}
+
+	private static com.sun.management.ThreadMXBean threads() {
+		try {
+			java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if (bean instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+				if (threads.isThreadAllocatedMemorySupported()) {
+					threads.setThreadAllocatedMemoryEnabled(true);
+					return threads;
+				}
+			}
+		} catch (LinkageError | UnsupportedOperationException e) {
+			// no allocation counter in this JVM
+		}
+		return null;
+	}
+
+	/**
+	 * @return The bytes allocated so far by the current thread, -1 if the JVM
+	 *         cannot tell
+	 */
+	static long allocatedBytes() {
+		return THREADS == null ? -1 : THREADS.getCurrentThreadAllocatedBytes();
+	}
+
+	/**
+	 * Keep the counters of a search
+	 *
+	 * @param stats The counters
+	 */
+	synchronized void record(SearchStats stats) {
+		latest[stats.getOrigin()] = stats;
+		searches++;
+	}
+
+	/**
+	 * @param origin The origin index
+	 * @return The counters of the last search of the origin, null if none
+	 */
+	public synchronized SearchStats get(int origin) {
+		return latest[origin];
+	}
+
+	/**
+	 * @return the counters of the last search of every origin searched
+	 */
+	public synchronized List<SearchStats> getAll() {
+		List<SearchStats> all = new ArrayList<>();
+		for (SearchStats s : latest)
+			if (s != null)
+				all.add(s);
+		return all;
+	}
+
+	/**
+	 * @return the number of searches recorded, including replaced ones
+	 */
+	public synchronized long getSearches() {
+		return searches;
+	}
+
+	/**
+	 * Forget all the searches
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < latest.length; ++i)
+			latest[i] = null;
+		searches = 0;
+	}
+
+	/**
+	 * Report of the searches kept: the totals, the histograms of the time and of
+	 * the labels polled per origin, and the slowest origins
+	 *
+	 * @param slowest The number of slowest origins listed
+	 * @return The report
+	 */
+	public String summary(int slowest) {
+		List<SearchStats> all = getAll();
+		StringBuilder out = new StringBuilder();
+		if (all.isEmpty())
+			return "No searches recorded\n";
+
+		long nanos = 0, allocated = 0, pushed = 0, polled = 0, accepted = 0;
+		long cycle = 0, full = 0, dominated = 0, transfer = 0, doubleTransfer = 0, bound = 0;
+		int peak = 0;
+		long[] micros = new long[all.size()];
+		long[] polls = new long[all.size()];
+		for (int i = 0; i < all.size(); ++i) {
+			SearchStats s = all.get(i);
+			nanos += s.getNanos();
+			allocated += Math.max(s.getAllocatedBytes(), 0);
+			pushed += s.getPushed();
+			polled += s.getPolled();
+			accepted += s.getAccepted();
+			cycle += s.getRejectedCycle();
+			full += s.getRejectedFull();
+			dominated += s.getRejectedDominated();
+			transfer += s.getRejectedTransfer();
+			doubleTransfer += s.getRejectedDoubleTransfer();
+			bound += s.getRejectedBound();
+			peak = Math.max(peak, s.getPeakQueue());
+			micros[i] = s.getNanos() / 1000;
+			polls[i] = s.getPolled();
+		}
+
+		out.append(String.format("Origins: %d (%d searches)\n", all.size(), getSearches()));
+		out.append(String.format("Search time: %.3f s, allocated: %.1f MB\n", nanos / 1e9, allocated / 1048576.0));
+		out.append(String.format("Labels pushed: %d, polled: %d, peak queue: %d, paths accepted: %d\n", pushed,
+				polled, peak, accepted));
+		out.append(String.format(
+				"Rejected: cycle %d, full %d, dominated %d, transfer after transfer %d, double transfer %d, bound %d\n",
+				cycle, full, dominated, transfer, doubleTransfer, bound));
+
+		histogram(out, "Time per origin (us)", micros);
+		histogram(out, "Labels polled per origin", polls);
+
+		// the slowest origins
+		all.sort(Comparator.comparingLong(SearchStats::getNanos).reversed());
+		out.append("Slowest origins:\n");
+		for (int i = 0; i < slowest && i < all.size(); ++i)
+			out.append("  station ").append(graph.stationID(all.get(i).getOrigin())).append(' ').append(all.get(i))
+					.append('\n');
+		return out.toString();
+	}
+
+	/**
+	 * Append a histogram with power of two buckets
+	 */
+	private static void histogram(StringBuilder out, String title, long[] values) {
+		int[] buckets = new int[65];
+		int first = buckets.length, last = 0;
+		for (long v : values) {
+			int b = v <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(v);
+			buckets[b]++;
+			first = Math.min(first, b);
+			last = Math.max(last, b);
+		}
+
+		out.append(title).append(":\n");
+		for (int b = first; b <= last; ++b) {
+			long low = b == 0 ? 0 : 1L << (b - 1);
+			long high = (1L << b) - 1;
+			out.append(String.format("  %10d - %10d: %6d ", low, high, buckets[b]));
+			for (int i = 0; i < buckets[b] * 50 / values.length; ++i)
+				out.append('#');
+			out.append('\n');
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package cn.com.bjjdsy.ksp;
+
+/**
+ * Counters of the search of one origin
+ *
+ * The engine counts the labels as it goes. The elapsed time and the bytes
+ * allocated are only measured when the search is recorded, otherwise they
+ * stay 0.
+ *
+ */
+public final class SearchStats {
+	private final int origin;
+
+	// counted by the engine
+	long pushed;
+	long polled;
+	int peakQueue;
+	long accepted;
+	long rejectedCycle;
+	long rejectedFull;
+	long rejectedDominated;
+	long rejectedTransfer;
+	long rejectedDoubleTransfer;
+	long rejectedBound;
+
+	// measured around the search
+	long nanos;
+	long allocatedBytes;
+
+	/**
+	 * Constructor for the counters of a search
+	 *
+	 * @param origin The origin index
+	 */
+	public SearchStats(int origin) {
+		this.origin = origin;
+	}
+
+	/**
+	 * @return the origin index
+	 */
+	public int getOrigin() {
+		return origin;
+	}
+
+	/**
+	 * @return the number of labels queued
+	 */
+	public long getPushed() {
+		return pushed;
+	}
+
+	/**
+	 * @return the number of labels taken from the queue
+	 */
+	public long getPolled() {
+		return polled;
+	}
+
+	/**
+	 * @return the largest number of labels in the queue at once
+	 */
+	public int getPeakQueue() {
+		return peakQueue;
+	}
+
+	/**
+	 * @return the number of paths taken by the stations
+	 */
+	public long getAccepted() {
+		return accepted;
+	}
+
+	/**
+	 * @return the number of extensions dropped because they return to a station
+	 *         of the path
+	 */
+	public long getRejectedCycle() {
+		return rejectedCycle;
+	}
+
+	/**
+	 * @return the number of labels dropped because their station already has
+	 *         all its paths
+	 */
+	public long getRejectedFull() {
+		return rejectedFull;
+	}
+
+	/**
+	 * @return the number of extensions dropped because "number" labels queued
+	 *         at the station come before them
+	 */
+	public long getRejectedDominated() {
+		return rejectedDominated;
+	}
+
+	/**
+	 * @return the number of extensions dropped for transferring right after a
+	 *         transfer
+	 */
+	public long getRejectedTransfer() {
+		return rejectedTransfer;
+	}
+
+	/**
+	 * @return the number of paths withdrawn for passing a transfer station twice
+	 */
+	public long getRejectedDoubleTransfer() {
+		return rejectedDoubleTransfer;
+	}
+
+	/**
+	 * @return the number of extensions dropped by the lower bounds or the choice
+	 *         set limits
+	 */
+	public long getRejectedBound() {
+		return rejectedBound;
+	}
+
+	/**
+	 * @return the time the search took in nanoseconds
+	 */
+	public long getNanos() {
+		return nanos;
+	}
+
+	/**
+	 * @return the bytes allocated by the search, -1 if the JVM cannot tell
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"origin %d: %.3f ms, %d bytes, pushed %d, polled %d, peak queue %d, accepted %d, rejected cycle %d full %d dominated %d transfer %d double transfer %d bound %d",
+				origin, nanos / 1e6, allocatedBytes, pushed, polled, peakQueue, accepted, rejectedCycle, rejectedFull,
+				rejectedDominated, rejectedTransfer, rejectedDoubleTransfer, rejectedBound);
+	}
+}
@@ -0,0 +1,112 @@
+package cn.com.bjjdsy.ksp;
+
+/**
+ * The weights of every connection in one time period of the service
+ *
+ * A profile only holds the time and impedance of every edge of a
+ * CompactGraph, so several profiles share one network and switching between
+ * them only swaps the weights. It also keeps the walk time and depart interval
+ * of every transfer, so the impedance can be weighed again with another
+ * ImpedanceFunction without reading the input, and the park times and depart
+ * intervals it was read with, where the changes of a Graph using it start.
+ *
+ */
+public final class ServiceProfile {
+	private final String name;
+	private final int[] times;
+	private final double[] impedances;
+
+	// walk time and depart interval of every transfer edge, -1 for a free one
+	private final boolean[] transfers;
+	private final int[] walkTimes;
+	private final int[] departIntervals;
+
+	// park times keyed by the pair of stations and depart intervals by line
+	private final LongIntMap parkTimes;
+	private final LongIntMap departTimes;
+
+	/**
+	 * Constructor for a profile
+	 *
+	 * @param name            The name of the time period, null for the base
+	 *                        input
+	 * @param times           The time of every edge
+	 * @param walkTimes       The walk time of every transfer edge, -1 if the
+	 *                        transfer is free, 0 for a section
+	 * @param departIntervals The depart interval of the line every transfer edge
+	 *                        goes to, 0 for a section
+	 * @param transfers       Which edges are transfers
+	 * @param parkTimes       The park times keyed by the pair of stations
+	 * @param departTimes     The depart intervals keyed by line
+	 * @param impedance       The impedance function
+	 */
+	public ServiceProfile(String name, int[] times, int[] walkTimes, int[] departIntervals, boolean[] transfers,
+			LongIntMap parkTimes, LongIntMap departTimes, ImpedanceFunction impedance) {
+		if (times.length != walkTimes.length || times.length != departIntervals.length
+				|| times.length != transfers.length)
+			throw new IllegalArgumentException();
+
+		this.name = name;
+		this.times = times;
+		this.transfers = transfers;
+		this.walkTimes = walkTimes;
+		this.departIntervals = departIntervals;
+		this.parkTimes = parkTimes;
+		this.departTimes = departTimes;
+
+		impedances = new double[times.length];
+		for (int e = 0; e < times.length; ++e) {
+			if (!transfers[e])
+				impedances[e] = impedance.section(times[e]);
+			else if (walkTimes[e] >= 0)
+				impedances[e] = impedance.transfer(walkTimes[e], departIntervals[e]);
+		}
+	}
+
+	/**
+	 * The same times weighed with another impedance function
+	 *
+	 * @param name      The name of the new profile
+	 * @param impedance The impedance function
+	 * @return The new profile
+	 */
+	public ServiceProfile weigh(String name, ImpedanceFunction impedance) {
+		return new ServiceProfile(name, times, walkTimes, departIntervals, transfers, parkTimes, departTimes,
+				impedance);
+	}
+
+	/**
+	 * @return the name of the time period, null for the base input
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the time of every edge
+	 */
+	public int[] getTimes() {
+		return times;
+	}
+
+	/**
+	 * @return the impedance of every edge
+	 */
+	public double[] getImpedances() {
+		return impedances;
+	}
+
+	/**
+	 * @return a copy of the park times keyed by the pair of stations
+	 */
+	public LongIntMap getParkTimes() {
+		return parkTimes.copy();
+	}
+
+	/**
+	 * @return a copy of the depart intervals keyed by line
+	 */
+	public LongIntMap getDepartTimes() {
+		return departTimes.copy();
+	}
+}
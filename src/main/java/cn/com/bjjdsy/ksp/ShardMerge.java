@@ -0,0 +1,190 @@
+package cn.com.bjjdsy.ksp;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Merges the partition files of a sharded run into one output
+ *
+ * Every shard of the run must be given once, all of them written from the same
+ * input files, impedance function, profile and number of paths. The origins are
+ * read back in index order, one at a time, and handed to a sink, so the merge
+ * needs no more memory than the paths of one origin.
+ *
+ * Usage, from the directory holding the input files:
+ * 
+ * <pre>
+ * java cn.com.bjjdsy.ksp.ShardMerge text|gzip|db output partition...
+ * </pre>
+ *
+ */
+public final class ShardMerge {
+	private ShardMerge() {
+	}
+
+	/**
+	 * An open partition file and the next origin in it
+	 */
+	private static final class Partition implements AutoCloseable {
+		final File file;
+		final DataInputStream in;
+		ShardSpec shard;
+		int next;
+
+		Partition(File file) throws IOException {
+			this.file = file;
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/**
+	 * Merge partition files
+	 *
+	 * @param files The partition files, one per shard in any order
+	 * @param g     The graph the paths run on
+	 * @param sink  Receives the paths of every origin in index order
+	 * @throws IllegalArgumentException If a shard is missing, given twice,
+	 *                                  incomplete, of another network or of
+	 *                                  another profile or number of paths
+	 * @throws UncheckedIOException     If a file cannot be read
+	 */
+	public static void merge(File[] files, Graph g, PathSink sink) {
+		if (files.length == 0)
+			throw new IllegalArgumentException("No partition given.");
+
+		CompactGraph graph = g.getCompactGraph();
+		byte[] hash = g.getInputHash();
+		String profile = null;
+		int number = 0;
+
+		Partition[] shards = new Partition[files.length];
+		Partition[] opened = new Partition[files.length];
+		int count = 0;
+		try {
+			// check the headers
+			for (File f : files) {
+				Partition p = new Partition(f);
+				opened[count++] = p;
+				if (p.in.readInt() != ShardWriter.MAGIC)
+					throw new IllegalArgumentException("Not a partition file: " + f);
+				if (p.in.readInt() != ShardWriter.VERSION)
+					throw new IllegalArgumentException("Unsupported partition version: " + f);
+				if (p.in.readInt() != graph.getNodes() || p.in.readInt() != ShardWriter.fingerprint(graph))
+					throw new IllegalArgumentException("Partition of another network: " + f);
+				byte[] inputs = new byte[p.in.readInt()];
+				p.in.readFully(inputs);
+				if (!Arrays.equals(inputs, hash))
+					throw new IllegalArgumentException("Partition of other input files or impedance function: " + f);
+				String partProfile = p.in.readUTF();
+				int partNumber = p.in.readInt();
+				if (profile == null) {
+					profile = partProfile;
+					number = partNumber;
+				} else if (!partProfile.equals(profile) || partNumber != number)
+					throw new IllegalArgumentException("Partition " + f + " has " + partNumber + " paths of profile \""
+							+ partProfile + "\", " + files[0] + " has " + number + " of \"" + profile + "\".");
+				p.shard = new ShardSpec(p.in.readInt(), p.in.readInt());
+				if (p.shard.getCount() != files.length)
+					throw new IllegalArgumentException(
+							"Partition " + f + " is one of " + p.shard.getCount() + ", " + files.length + " given.");
+				if (shards[p.shard.getIndex()] != null)
+					throw new IllegalArgumentException("Shard " + p.shard + " given twice.");
+				shards[p.shard.getIndex()] = p;
+				p.next = p.in.readInt();
+			}
+
+			// the origins in index order
+			int stations = graph.getNodes();
+			for (int origin = 0; origin < stations; ++origin) {
+				Partition p = shards[origin % shards.length];
+				if (p.next != origin)
+					throw new IllegalArgumentException("Partition " + p.file + " has no origin " + origin + ".");
+				sink.accept(origin, read(p.in, graph));
+				p.next = p.in.readInt();
+			}
+
+			for (Partition p : shards)
+				if (p.next != -1)
+					throw new IllegalArgumentException("Partition " + p.file + " has origins past the network.");
+		} catch (EOFException e) {
+			throw new IllegalArgumentException("A partition file is cut short.", e);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot read the partitions", e);
+		} finally {
+			for (int i = 0; i < count; ++i)
+				try {
+					opened[i].close();
+				} catch (IOException e) {
+					// nothing left to read
+				}
+		}
+	}
+
+	/**
+	 * The paths of one origin
+	 */
+	private static Path[][] read(DataInputStream in, CompactGraph graph) throws IOException {
+		Path[][] paths = new Path[graph.getNodes()][];
+		for (int end = 0; end < paths.length; ++end) {
+			paths[end] = new Path[in.readInt()];
+			for (int i = 0; i < paths[end].length; ++i) {
+				int[] route = new int[in.readInt()];
+				int time = in.readInt();
+				double impedance = in.readDouble();
+				for (int j = 0; j < route.length; ++j)
+					route[j] = in.readInt();
+				paths[end][i] = graph.toPath(route, time, impedance);
+			}
+		}
+		return paths;
+	}
+
+	/**
+	 * Merge partition files into a text output, a compressed text output or a
+	 * path database
+	 *
+	 * @param args The kind of output, the output file and the partition files
+	 * @throws IOException If a file cannot be read or written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println("Usage: ShardMerge text|gzip|db output partition...");
+			System.exit(2);
+		}
+
+		Graph g = new Graph();
+		g.readGraph(new File(Graph.SNAPSHOT));
+		CompactGraph graph = g.getCompactGraph();
+
+		File output = new File(args[1]);
+		File[] files = new File[args.length - 2];
+		for (int i = 0; i < files.length; ++i)
+			files[i] = new File(args[i + 2]);
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		PathSink sink;
+		if (args[0].equals("text"))
+			sink = new PathWriter(output, graph, threads, false);
+		else if (args[0].equals("gzip"))
+			sink = new PathWriter(output, graph, threads, true);
+		else if (args[0].equals("db"))
+			sink = new PathDatabaseWriter(output, graph);
+		else
+			throw new IllegalArgumentException("Unknown output " + args[0]);
+
+		try (PathSink s = sink) {
+			merge(files, g, s);
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package cn.com.bjjdsy.ksp;
+
+/**
+ * Shard i of N of the origins, for runs split over several processes
+ *
+ * Origin index u belongs to shard u % N, so every shard gets origins from all
+ * over the network and about the same work.
+ *
+ */
+public final class ShardSpec {
+	/**
+	 * The only shard of an unsplit run
+	 */
+	public static final ShardSpec ALL = new ShardSpec(0, 1);
+
+	private final int index;
+	private final int count;
+
+	/**
+	 * Constructor for a shard
+	 *
+	 * @param index The shard, from 0 to count - 1
+	 * @param count The number of shards
+	 */
+	public ShardSpec(int index, int count) {
+		if (count < 1 || index < 0 || index >= count)
+			throw new IllegalArgumentException("Invalid shard " + index + " of " + count + ".");
+
+		this.index = index;
+		this.count = count;
+	}
+
+	/**
+	 * Read a shard written as "i/N"
+	 *
+	 * @param spec The shard
+	 * @return The shard
+	 */
+	public static ShardSpec parse(String spec) {
+		int slash = spec.indexOf('/');
+		if (slash < 0)
+			throw new IllegalArgumentException("Shard must be given as i/N: " + spec);
+		try {
+			return new ShardSpec(Integer.parseInt(spec.substring(0, slash).trim()),
+					Integer.parseInt(spec.substring(slash + 1).trim()));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Shard must be given as i/N: " + spec);
+		}
+	}
+
+	/**
+	 * @return the shard, from 0 to count - 1
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return the number of shards
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @param origin Index of the origin station
+	 * @return If the origin belongs to this shard
+	 */
+	public boolean contains(int origin) {
+		return origin % count == index;
+	}
+
+	/**
+	 * @param stations The number of stations
+	 * @return The origins of this shard in index order
+	 */
+	public int[] origins(int stations) {
+		int[] origins = new int[stations > index ? (stations - index + count - 1) / count : 0];
+		for (int i = 0; i < origins.length; ++i)
+			origins[i] = index + i * count;
+		return origins;
+	}
+
+	@Override
+	public String toString() {
+		return index + "/" + count;
+	}
+}
@@ -0,0 +1,151 @@
+package cn.com.bjjdsy.ksp;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Writes the paths of one shard of the origins to a partition file read by
+ * ShardMerge
+ *
+ * Layout, big endian: magic, version, number of stations, fingerprint of the
+ * network, length and bytes of the hash of the input files, profile name (empty
+ * for the input files), number of paths per OD pair, shard index and number of
+ * shards, then for every origin of the shard in index order the origin and, for
+ * every destination, the number of paths followed by the number of stations,
+ * time, impedance and station indices of every path. An origin of -1 ends the
+ * file, so a partition cut short is found out when merging.
+ *
+ */
+public class ShardWriter implements PathSink {
+	public static final int MAGIC = 0x4B535053;
+	public static final int VERSION = 2;
+
+	private final CompactGraph graph;
+	private final ShardSpec shard;
+	private final DataOutputStream out;
+
+	// the last origin written
+	private int last = -1;
+
+	/**
+	 * Constructor for the writer, truncating the file
+	 *
+	 * @param file   The partition file
+	 * @param graph  The graph the paths run on, with the profile in use
+	 * @param shard  The shard written
+	 * @param number The number of paths searched per OD pair
+	 * @throws UncheckedIOException If the file cannot be written
+	 */
+	public ShardWriter(File file, Graph graph, ShardSpec shard, int number) {
+		this.graph = graph.getCompactGraph();
+		this.shard = shard;
+		byte[] hash = graph.getInputHash();
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(this.graph.getNodes());
+			out.writeInt(fingerprint(this.graph));
+			out.writeInt(hash.length);
+			out.write(hash);
+			out.writeUTF(graph.getProfile() == null ? "" : graph.getProfile());
+			out.writeInt(number);
+			out.writeInt(shard.getIndex());
+			out.writeInt(shard.getCount());
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot write the partition " + file, e);
+		}
+	}
+
+	/**
+	 * A hash of the stations and connections, partitions of different networks
+	 * are not merged
+	 *
+	 * @param graph The graph
+	 * @return The fingerprint
+	 */
+	public static int fingerprint(CompactGraph graph) {
+		int hash = graph.getNodes();
+		for (int u = 0; u < graph.getNodes(); ++u) {
+			hash = 31 * hash + graph.stationID(u);
+			hash = 31 * hash + graph.trackID(u);
+			for (int e = graph.firstEdge(u); e < graph.endEdge(u); ++e)
+				hash = 31 * hash + graph.target(e);
+		}
+		return hash;
+	}
+
+	/**
+	 * Start the paths of an origin
+	 */
+	private void origin(int origin) throws IOException {
+		if (!shard.contains(origin))
+			throw new IllegalArgumentException("Origin " + origin + " is not in shard " + shard + ".");
+		if (origin <= last)
+			throw new IllegalArgumentException("Origins must be written in index order.");
+		last = origin;
+		out.writeInt(origin);
+	}
+
+	private void path(int[] route, int time, double impedance) throws IOException {
+		out.writeInt(route.length);
+		out.writeInt(time);
+		out.writeDouble(impedance);
+		for (int node : route)
+			out.writeInt(node);
+	}
+
+	@Override
+	public void accept(int origin, Path[][] paths) {
+		try {
+			origin(origin);
+			for (int end = 0; end < graph.getNodes(); ++end) {
+				out.writeInt(paths[end].length);
+				for (Path p : paths[end]) {
+					int[] route = new int[p.getStations().size()];
+					for (int j = 0; j < route.length; ++j)
+						route[j] = graph.indexOf(p.getStations().get(j).getID());
+					path(route, p.getDist(), p.getImpedance());
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot write the partition", e);
+		}
+	}
+
+	/**
+	 * Write the paths of all the origins of the shard from a store
+	 *
+	 * @param store The stored paths
+	 */
+	public void write(PathStore store) {
+		try {
+			for (int origin : shard.origins(graph.getNodes())) {
+				origin(origin);
+				for (int end = 0; end < graph.getNodes(); ++end) {
+					out.writeInt(store.count(origin, end));
+					for (int i = 0; i < store.count(origin, end); ++i) {
+						int path = store.path(origin, end, i);
+						path(store.route(path), store.time(path), store.impedance(path));
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot write the partition", e);
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			out.writeInt(-1);
+			out.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot write the partition", e);
+		}
+	}
+}
@@ -1,29 +1,140 @@
 package cn.com.bjjdsy.ksp;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+
 public class Tester {
 	private static final int PATHS = 30;
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+	// write every origin as soon as it is done instead of keeping all the paths
+	private static final boolean STREAM = true;
+
+	// compress the output files
+	private static final boolean GZIP = false;
+
+	// count the labels of every origin and print a report after the run, the
+	// searches also show up in flight recordings as cn.com.bjjdsy.ksp.OriginSearch
+	private static final boolean METRICS = false;
+
+	// time periods read from the input files named with "_" and the period, for
+	// example { "am_peak", "off_peak", "pm_peak", "late_night" }
+	private static final String[] PROFILES = {};
+
+	// choice sets written from one search at the largest number of paths, one
+	// file per number, for example { 3, 5, 30 }
+	private static final int[] LEVELS = {};
+
+	/**
+	 * The output file, with .gz when compressed
+	 */
+	private static File output(File file) {
+		return GZIP ? new File(file.getPath() + ".gz") : file;
+	}
+
+	/**
+	 * A sink writing the paths to a file, formatting the origins in parallel
+	 */
+	private static PathSink writer(File file, Graph g) {
+		return new PathWriter(output(file), g.getCompactGraph(), THREADS, GZIP);
+	}
+
+	public static void main(String[] args) throws FileNotFoundException {
+		// one shard of a run split over several processes, for example
+		// "java Tester 0/4" to "java Tester 3/4", merged with ShardMerge
+		ShardSpec shard = args.length > 0 ? ShardSpec.parse(args[0]) : null;
+		if (shard != null && (PROFILES.length > 0 || LEVELS.length > 0)) {
+			System.err.println("Shard " + shard + " is a run of the input files, PROFILES and LEVELS must be empty.");
+			System.exit(2);
+		}
 
-	public static void main(String[] args) {
 		Stopwatch timer = new Stopwatch();
 
 		// read the graph
 		timer.start();
 		Graph g = new Graph();
-		g.readGraph();
+		g.readGraph(new File(Graph.SNAPSHOT));
 		timer.stop();
 
 		System.out.printf("Time to generate the graph: %.6f seconds\n", timer.time());
 
+		// Yen's algorithm is faster for single OD pairs and small K
+//		g.setEngine(new YenEngine(g.getCompactGraph()));
+
+		// keep only the paths close to the shortest one
+//		g.setEngine(new MultiDijkstraEngine(g.getCompactGraph(), false, new SearchBounds(1.5, 20, 3)));
+
+		SearchMetrics metrics = new SearchMetrics(g.getCompactGraph());
+		if (METRICS && g.getEngine() instanceof MultiDijkstraEngine)
+			((MultiDijkstraEngine) g.getEngine()).setMetrics(metrics);
+
+		// one output per time period, each with its own input files
+		if (PROFILES.length > 0) {
+			timer.start();
+			for (String profile : PROFILES) {
+				g.useProfile(g.readProfile(profile));
+				try (PathSink sink = writer(Graph.outputFile(profile), g)) {
+					g.streamPaths(PATHS, THREADS, sink);
+				}
+			}
+			timer.stop();
+
+			System.out.printf("Time it takes to get and print the paths of all the profiles: %.6f seconds\n", timer.time());
+			if (METRICS)
+				System.out.print(metrics.summary(10));
+			System.exit(1);
+		}
+
+		// the shard given, a failed shard exits with 1 through its exception
+		if (shard != null) {
+			timer.start();
+			try (PathSink sink = new ShardWriter(Graph.partitionFile(shard), g, shard, PATHS)) {
+				g.streamPaths(PATHS, THREADS, shard, sink);
+			}
+			timer.stop();
+
+			System.out.printf("Time it takes to get and write the paths of shard %s: %.6f seconds\n", shard, timer.time());
+			System.exit(0);
+		}
+
+		if (LEVELS.length > 0) {
+			// get and print the paths of every number of paths in one pass
+			timer.start();
+			g.streamPaths(LEVELS, THREADS, k -> writer(Graph.outputFile("k" + k), g));
+			timer.stop();
+
+			System.out.printf("Time it takes to get and print the paths of all the levels: %.6f seconds\n", timer.time());
+			if (METRICS)
+				System.out.print(metrics.summary(10));
+			System.exit(1);
+		}
+
+		if (STREAM) {
+			// get and print all shortest paths in one pass
+			timer.start();
+			try (PathSink sink = writer(Graph.outputFile(), g)) {
+				g.streamPaths(PATHS, THREADS, sink);
+			}
+			timer.stop();
+
+			System.out.printf("Time it takes to get and print all the shortest paths: %.6f seconds\n", timer.time());
+			if (METRICS)
+				System.out.print(metrics.summary(10));
+			System.exit(1);
+		}
+
 		// get all shortest paths
 		timer.start();
-		g.getPaths(PATHS);
+		g.getPaths(PATHS, THREADS);
 		timer.stop();
 
 		System.out.printf("Time it takes to get all the shortest paths: %.6f seconds\n", timer.time());
+		if (METRICS)
+			System.out.print(metrics.summary(10));
 
 		// get all shortest paths
 		timer.start();
-		g.printPaths();
+		g.printPaths(output(Graph.outputFile()), THREADS, GZIP);
 
 //		g.printPath(125, 423);
 //		g.printPath(201, 211);
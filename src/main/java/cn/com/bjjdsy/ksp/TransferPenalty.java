@@ -0,0 +1,56 @@
+package cn.com.bjjdsy.ksp;
+
+/**
+ * Impedance of sections equal to their time and of transfers equal to the walk
+ * plus a share of the depart interval, times a penalty factor
+ *
+ */
+public final class TransferPenalty implements ImpedanceFunction {
+	private final double headwayWeight;
+	private final double factor;
+
+	/**
+	 * Constructor for the function
+	 *
+	 * @param headwayWeight Share of the depart interval waited
+	 * @param factor        Factor applied to the transfer time
+	 */
+	public TransferPenalty(double headwayWeight, double factor) {
+		this.headwayWeight = headwayWeight;
+		this.factor = factor;
+	}
+
+	/**
+	 * @return the share of the depart interval waited
+	 */
+	public double getHeadwayWeight() {
+		return headwayWeight;
+	}
+
+	/**
+	 * @return the factor applied to the transfer time
+	 */
+	public double getFactor() {
+		return factor;
+	}
+
+	@Override
+	public double section(int travelTime) {
+		return travelTime;
+	}
+
+	@Override
+	public double transfer(int walkTime, int departInterval) {
+		return (walkTime + departInterval * headwayWeight) * factor;
+	}
+
+	@Override
+	public String key() {
+		return "transfer_" + headwayWeight + "_" + factor;
+	}
+
+	@Override
+	public String toString() {
+		return key();
+	}
+}
@@ -0,0 +1,438 @@
+package cn.com.bjjdsy.ksp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Yen's loopless K shortest paths between one origin and one destination
+ *
+ * The spur paths come from a Dijkstra search over (station, arrived by
+ * transfer) states, so the transfer rules of the label search hold: no
+ * transfer right after a transfer, a transfer as first connection is free and
+ * a transfer as last connection is not charged. The transfer stations the root
+ * already left are closed to the spur search. A path that still breaks the
+ * unTransMap rule or loops is not returned, but it is accepted like the others
+ * so that the paths deviating from it are searched too. Much cheaper than the
+ * label search for single OD pairs and small K.
+ *
+ */
+public class YenEngine implements KShortestPathEngine {
+	private final CompactGraph graph;
+
+	// the stations of every transfer station, by dense index
+	private final int[][] complexes;
+
+	/**
+	 * Constructor for the engine
+	 *
+	 * @param graph The graph to search
+	 */
+	public YenEngine(CompactGraph graph) {
+		this.graph = graph;
+
+		int[] sizes = new int[graph.getTransferStations()];
+		for (int u = 0; u < graph.getNodes(); ++u)
+			if (graph.tsIndex(u) >= 0)
+				sizes[graph.tsIndex(u)]++;
+		complexes = new int[sizes.length][];
+		for (int i = 0; i < sizes.length; ++i)
+			complexes[i] = new int[sizes[i]];
+		for (int u = 0; u < graph.getNodes(); ++u)
+			if (graph.tsIndex(u) >= 0)
+				complexes[graph.tsIndex(u)][--sizes[graph.tsIndex(u)]] = u;
+	}
+
+	@Override
+	public KShortestPathEngine withGraph(CompactGraph graph) {
+		return new YenEngine(graph);
+	}
+
+	@Override
+	public Path[][] search(int origin, int number) {
+		Path[][] found = new Path[graph.getNodes()][];
+		for (int end = 0; end < found.length; ++end)
+			found[end] = search(origin, end, number);
+		return found;
+	}
+
+	@Override
+	public Path[] search(int origin, int destination, int number) {
+		if (origin == destination)
+			return new Path[0];
+
+		List<Candidate> accepted = new ArrayList<>();
+		PriorityQueue<Candidate> candidates = new PriorityQueue<>();
+		Set<Candidate> seen = new HashSet<>();
+
+		boolean[] removedNodes = new boolean[graph.getNodes()];
+		boolean[] removedEdges = new boolean[graph.getEdges()];
+
+		// the shortest path
+		Candidate first = spur(new int[] { origin }, 0, destination, removedNodes, removedEdges);
+		if (first != null) {
+			accepted.add(first);
+			seen.add(first);
+		}
+
+		// the paths returned, the broken ones only lead to the next paths
+		List<Candidate> valid = new ArrayList<>();
+		if (first != null && first.isValid())
+			valid.add(first);
+
+		while (!accepted.isEmpty() && valid.size() < number) {
+			Candidate last = accepted.get(accepted.size() - 1);
+			int[] prev = last.route;
+
+			// deviate from the previous path at every station but the last, as long
+			// as the root keeps the rules
+			for (int i = 0; i < prev.length - 1 && i < last.broken; ++i) {
+				Arrays.fill(removedNodes, false);
+				Arrays.fill(removedEdges, false);
+
+				// remove the next connection of every accepted path sharing this root
+				for (Candidate p : accepted)
+					if (p.route.length > i + 1 && sameRoot(p.route, prev, i))
+						removedEdges[graph.findEdge(p.route[i], p.route[i + 1])] = true;
+
+				// the root stations cannot be used again, nor the transfer stations
+				// the root left but at the destination
+				for (int j = 0; j < i; ++j) {
+					removedNodes[prev[j]] = true;
+					int tsCode = graph.tsCode(prev[j]);
+					if (tsCode != 0 && tsCode != graph.tsCode(prev[j + 1]) && tsCode != graph.tsCode(destination))
+						for (int u : complex(prev[j]))
+							removedNodes[u] = true;
+				}
+
+				Candidate next = spur(prev, i, destination, removedNodes, removedEdges);
+				if (next != null && seen.add(next))
+					candidates.add(next);
+			}
+
+			if (candidates.isEmpty())
+				break;
+			Candidate next = candidates.poll();
+			accepted.add(next);
+			if (next.isValid())
+				valid.add(next);
+		}
+
+		Path[] result = new Path[valid.size()];
+		for (int i = 0; i < result.length; ++i) {
+			Candidate c = valid.get(i);
+			result[i] = graph.toPath(c.route, c.time, c.impedance);
+		}
+		return result;
+	}
+
+	/**
+	 * The stations of the transfer station of a station
+	 */
+	private int[] complex(int u) {
+		return complexes[graph.tsIndex(u)];
+	}
+
+	/**
+	 * Checks if two routes share the stations 0 .. i
+	 */
+	private static boolean sameRoot(int[] a, int[] b, int i) {
+		for (int j = 0; j <= i; ++j)
+			if (a[j] != b[j])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Find the shortest path that follows the root up to a spur station
+	 *
+	 * Besides the station and if it was reached by a transfer, a state counts
+	 * the visits of the transfer station of the destination, so the search does
+	 * not enter the destination after passing its transfer station. The label
+	 * search keeps such a path only if it cannot go on, which the spur search
+	 * allows when the other stations next to the destination are on the root,
+	 * as at a terminal.
+	 *
+	 * @param root         The route the path starts with
+	 * @param spur         The position of the spur station in the root
+	 * @param destination  The destination station
+	 * @param removedNodes Stations that cannot be used
+	 * @param removedEdges Connections that cannot be used
+	 * @return The candidate, null if there is none
+	 */
+	private Candidate spur(int[] root, int spur, int destination, boolean[] removedNodes, boolean[] removedEdges) {
+		int origin = root[0];
+		int start = root[spur];
+
+		int tsIndex = graph.tsIndex(destination);
+		int counts = tsIndex >= 0 ? 4 : 1;
+		int perNode = 2 * counts;
+
+		// the visits and the neighbors of the destination passed by the root
+		int count = 0;
+		int passed = 0;
+		for (int j = 0; j <= spur && tsIndex >= 0; ++j) {
+			passed |= neighbors(destination, root[j]);
+			if (j < spur && graph.tsIndex(root[j]) == tsIndex)
+				count += graph.isTransfer(graph.findEdge(root[j], root[j + 1])) ? 1 : 2;
+		}
+
+		double[] dist = new double[graph.getNodes() * perNode];
+		int[] hops = new int[dist.length];
+		int[] prev = new int[dist.length];
+		Arrays.fill(dist, Double.POSITIVE_INFINITY);
+
+		// the state of the spur station depends on how the root arrived at it
+		boolean arrivedByTransfer = spur > 0 && graph.isTransfer(graph.findEdge(root[spur - 1], start));
+		int startState = start * perNode + (arrivedByTransfer ? counts : 0) + count;
+		dist[startState] = 0;
+		prev[startState] = -1;
+
+		// the destination is reached from the state in goalPrev
+		double goal = Double.POSITIVE_INFINITY;
+		int goalHops = Integer.MAX_VALUE;
+		int goalPrev = -1;
+
+		PriorityQueue<Entry> queue = new PriorityQueue<>();
+		queue.add(new Entry(startState, 0, 0));
+		while (!queue.isEmpty()) {
+			Entry cur = queue.poll();
+			if (cur.impedance != dist[cur.state] || cur.hops != hops[cur.state])
+				continue;
+
+			// nothing left can beat the destination
+			if (cur.impedance > goal || (cur.impedance == goal && cur.hops >= goalHops))
+				break;
+
+			int u = cur.state / perNode;
+			boolean transferred = cur.state % perNode >= counts;
+			int visits = cur.state % counts;
+			for (int e = graph.firstEdge(u); e < graph.endEdge(u); ++e) {
+				int v = graph.target(e);
+				boolean transfer = graph.isTransfer(e);
+				if (removedNodes[v] || removedEdges[e] || (transfer && transferred))
+					continue;
+
+				// delect double transfer at the transfer station of the destination
+				int nextVisits = visits;
+				if (tsIndex >= 0 && graph.tsIndex(u) == tsIndex) {
+					nextVisits += transfer ? 1 : 2;
+					if (nextVisits > 3)
+						continue;
+				}
+
+				// a transfer is free as first connection and as last connection
+				double cost = transfer ? (u == origin ? 0 : graph.impedance(e)) : graph.impedance(e);
+				if (v == destination) {
+					int around = passed | neighbors(destination, u);
+					if (nextVisits >= 2 && reentered(destination, nextVisits, transfer, around))
+						continue;
+
+					double total = cur.impedance + (transfer ? 0 : cost);
+					if (total < goal || (total == goal && cur.hops + 1 < goalHops)) {
+						goal = total;
+						goalHops = cur.hops + 1;
+						goalPrev = cur.state;
+					}
+					continue;
+				}
+
+				int state = v * perNode + (transfer ? counts : 0) + nextVisits;
+				double total = cur.impedance + cost;
+				if (total < dist[state] || (total == dist[state] && cur.hops + 1 < hops[state])) {
+					dist[state] = total;
+					hops[state] = cur.hops + 1;
+					prev[state] = cur.state;
+					queue.add(new Entry(state, total, cur.hops + 1));
+				}
+			}
+		}
+
+		if (goalPrev < 0)
+			return null;
+
+		// the root followed by the spur path
+		int[] route = new int[spur + goalHops + 1];
+		System.arraycopy(root, 0, route, 0, spur + 1);
+		route[route.length - 1] = destination;
+		int pos = route.length - 2;
+		for (int state = goalPrev; prev[state] >= 0; state = prev[state])
+			route[pos--] = state / perNode;
+
+		return evaluate(route);
+	}
+
+	/**
+	 * The connections leaving a station that lead to another one, as bits by
+	 * position in the connections of the station
+	 */
+	private int neighbors(int u, int v) {
+		int bits = 0;
+		for (int e = graph.firstEdge(u); e < graph.endEdge(u); ++e)
+			if (graph.target(e) == v)
+				bits |= 1 << (e - graph.firstEdge(u));
+		return bits;
+	}
+
+	/**
+	 * The connections leaving a station that lead to a station of a path, see
+	 * neighbors
+	 */
+	private int passed(int u, Set<Integer> visited) {
+		int bits = 0;
+		for (int e = graph.firstEdge(u); e < graph.endEdge(u); ++e)
+			if (visited.contains(graph.target(e)))
+				bits |= 1 << (e - graph.firstEdge(u));
+		return bits;
+	}
+
+	/**
+	 * Checks if the label search drops a path at a transfer station it entered
+	 * again. The path is dropped when it could go on to a station it has not
+	 * passed, so a path ending at a terminal is kept.
+	 *
+	 * @param u                 The station
+	 * @param visits            The visits of its transfer station so far
+	 * @param arrivedByTransfer If the path arrived by a transfer
+	 * @param passed            The connections of the station leading to a
+	 *                          station of the path, see neighbors
+	 */
+	private boolean reentered(int u, int visits, boolean arrivedByTransfer, int passed) {
+		for (int e = graph.firstEdge(u); e < graph.endEdge(u); ++e) {
+			boolean transfer = graph.isTransfer(e);
+			if ((passed & 1 << (e - graph.firstEdge(u))) != 0 || (transfer && arrivedByTransfer))
+				continue;
+			if (visits + (transfer ? 1 : 2) > 3)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Price a route the way the label search does and check its transfers
+	 *
+	 * @param route The station indices of the route
+	 * @return The candidate, with the first station where the route breaks the
+	 *         rules
+	 */
+	private Candidate evaluate(int[] route) {
+		Set<Integer> visited = new HashSet<>();
+		Map<Integer, Integer> unTrans = new HashMap<>();
+		int time = 0;
+		double impedance = 0;
+		boolean lastTransfer = false;
+		int broken = route.length;
+
+		for (int i = 0; i < route.length; ++i) {
+			int u = route[i];
+			int tsCode = graph.tsCode(u);
+
+			// loops, and a transfer station entered again
+			if (!visited.add(u) || (tsCode != 0 && reentered(u, unTrans.getOrDefault(tsCode, 0), lastTransfer,
+					passed(u, visited))))
+				broken = Math.min(broken, i);
+			if (i == route.length - 1)
+				break;
+
+			int e = graph.findEdge(u, route[i + 1]);
+			boolean transfer = graph.isTransfer(e);
+
+			// transfer after transfer
+			if (transfer && lastTransfer)
+				broken = Math.min(broken, i + 1);
+
+			// delect double transfer: transfer section +1 other +2
+			if (tsCode != 0) {
+				int visits = unTrans.getOrDefault(tsCode, 0) + (transfer ? 1 : 2);
+				if (visits > 3)
+					broken = Math.min(broken, i + 1);
+				unTrans.put(tsCode, visits);
+			}
+
+			// transfers are charged only inside the path
+			if (!transfer || (i > 0 && i < route.length - 2)) {
+				time += graph.time(e);
+				impedance += graph.impedance(e);
+			}
+			lastTransfer = transfer;
+		}
+
+		return new Candidate(route, time, impedance, broken);
+	}
+
+	/**
+	 * A state in the spur search queue
+	 */
+	private static final class Entry implements Comparable<Entry> {
+		final int state;
+		final double impedance;
+		final int hops;
+
+		Entry(int state, double impedance, int hops) {
+			this.state = state;
+			this.impedance = impedance;
+			this.hops = hops;
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			if (impedance != other.impedance)
+				return Double.compare(impedance, other.impedance);
+			return hops - other.hops;
+		}
+	}
+
+	/**
+	 * A complete route waiting to be accepted
+	 */
+	private static final class Candidate implements Comparable<Candidate> {
+		final int[] route;
+		final int time;
+		final double impedance;
+
+		// the first station where the route breaks the rules of the label search,
+		// the length of the route if it keeps them
+		final int broken;
+
+		Candidate(int[] route, int time, double impedance, int broken) {
+			this.route = route;
+			this.time = time;
+			this.impedance = impedance;
+			this.broken = broken;
+		}
+
+		boolean isValid() {
+			return broken == route.length;
+		}
+
+		@Override
+		public int compareTo(Candidate other) {
+			// compare the impedance, then the number of stations, then the stations
+			if (impedance != other.impedance)
+				return Double.compare(impedance, other.impedance);
+			if (route.length != other.route.length)
+				return route.length - other.route.length;
+			for (int i = 0; i < route.length; ++i)
+				if (route[i] != other.route[i])
+					return route[i] - other.route[i];
+			return 0;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Candidate))
+				return false;
+			return Arrays.equals(route, ((Candidate) o).route);
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(route);
+		}
+	}
+}
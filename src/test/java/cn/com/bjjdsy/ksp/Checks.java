@@ -0,0 +1,92 @@
+package cn.com.bjjdsy.ksp;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Runs the checks on the network in the working directory, all of them or the
+ * ones named, and exits with 1 if any of them fails:
+ *
+ * <pre>
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes cn.com.bjjdsy.ksp.Checks [name...]
+ * </pre>
+ *
+ */
+public final class Checks {
+	/**
+	 * A group of checks
+	 */
+	interface Check {
+		/**
+		 * @param checks Counts the failed checks
+		 * @throws Exception If the check cannot run, counted as a failure
+		 */
+		void run(Checks checks) throws Exception;
+	}
+
+	private static final Map<String, Check> CHECKS = new LinkedHashMap<>();
+	static {
+		CHECKS.put("yen", new YenEngineCheck());
+		CHECKS.put("cache", new RouteCacheCheck());
+		CHECKS.put("format", new PathWriterCheck());
+		CHECKS.put("shards", new ShardMergeCheck());
+		CHECKS.put("profiles", new ProfileChangeCheck());
+	}
+
+	private int failures;
+
+	private Checks() {
+	}
+
+	/**
+	 * Count a failed check and tell what failed
+	 *
+	 * @param ok   If the check passed
+	 * @param what What was checked
+	 */
+	void check(boolean ok, String what) {
+		if (!ok) {
+			System.out.println("  failed: " + what);
+			failures++;
+		}
+	}
+
+	/**
+	 * @return A graph read from the input files
+	 */
+	static Graph graph() {
+		Graph g = new Graph();
+		g.readGraph();
+		return g;
+	}
+
+	public static void main(String[] args) {
+		Collection<String> names = args.length == 0 ? CHECKS.keySet() : Arrays.asList(args);
+		for (String name : names)
+			if (!CHECKS.containsKey(name)) {
+				System.err.println("Unknown check " + name + ", the checks are " + CHECKS.keySet());
+				System.exit(2);
+			}
+
+		Checks checks = new Checks();
+		for (String name : names) {
+			int before = checks.failures;
+			Stopwatch timer = new Stopwatch();
+			timer.start();
+			try {
+				CHECKS.get(name).run(checks);
+			} catch (Exception e) {
+				e.printStackTrace(System.out);
+				checks.failures++;
+			}
+			timer.stop();
+
+			int failed = checks.failures - before;
+			System.out.printf("%s: %s in %.1f seconds\n", name, failed == 0 ? "passed" : failed + " failed", timer.time());
+		}
+		System.exit(checks.failures == 0 ? 0 : 1);
+	}
+}
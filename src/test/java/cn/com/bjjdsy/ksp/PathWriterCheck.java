@@ -0,0 +1,72 @@
+package cn.com.bjjdsy.ksp;
+
+import java.util.Random;
+
+/**
+ * The impedance PathWriter writes is the one printf("%.2f") prints, on the
+ * values next to the ties of the rounding, on the impedances of the
+ * connections and on random doubles
+ *
+ */
+final class PathWriterCheck implements Checks.Check {
+	private static final int RANDOM = 500000;
+
+	// the differences shown
+	private static final int SHOWN = 20;
+
+	private long checked;
+	private int differ;
+
+	@Override
+	public void run(Checks checks) {
+		checked = 0;
+		differ = 0;
+
+		// the ties x.xx5 and the doubles around them, up to 2000 minutes and
+		// where printf takes over for large values
+		for (long cents = -10000; cents <= 200000; ++cents)
+			ties(cents);
+		for (long cents = 999990000; cents <= 1000010000; ++cents)
+			ties(cents);
+
+		// the impedances in minutes, in half seconds as the connections have them
+		for (int halves = 0; halves <= 1000000; ++halves)
+			compare(halves / 2.0 / 60);
+
+		// random doubles of every size
+		Random random = new Random(42);
+		for (int i = 0; i < RANDOM; ++i) {
+			compare(random.nextDouble() * 10000);
+			compare((random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(40) - 10));
+			compare(Double.longBitsToDouble(random.nextLong()));
+		}
+		compare(0.0);
+		compare(-0.0);
+		compare(1e15);
+		compare(-1e15);
+		compare(Double.MAX_VALUE);
+
+		checks.check(differ == 0, differ + " of " + checked + " values written otherwise than printf");
+	}
+
+	private void ties(long cents) {
+		double tie = (cents + 0.5) / 100;
+		compare(tie);
+		compare(Math.nextUp(tie));
+		compare(Math.nextDown(tie));
+		compare(cents / 100.0);
+	}
+
+	private void compare(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value))
+			return;
+
+		PathWriter.Rows rows = new PathWriter.Rows();
+		rows.minutes(value);
+		String written = new String(rows.toArray());
+		String printed = String.format("%.2f", value);
+		checked++;
+		if (!written.equals(printed) && differ++ < SHOWN)
+			System.out.println("  " + value + ": written " + written + ", printf " + printed);
+	}
+}
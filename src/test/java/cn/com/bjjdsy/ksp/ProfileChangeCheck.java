@@ -0,0 +1,95 @@
+package cn.com.bjjdsy.ksp;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Changes of sections, park times and transfers made on a profile start from
+ * the park times and depart intervals of the profile, so the recomputed paths
+ * are those of a profile read with the changes
+ *
+ */
+final class ProfileChangeCheck implements Checks.Check {
+	private static final int PATHS = 3;
+
+	@Override
+	public void run(Checks checks) throws Exception {
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<File> written = new ArrayList<>();
+		try {
+			// a profile with other park times and depart intervals
+			written.add(profileFile(Graph.STATION_PARKTIME, "change", "1,124,1,123,", "1,124,1,123,90",
+					"1,125,1,124,", "1,125,1,124,45"));
+			written.add(profileFile(Graph.LINE_DEPART_INTERVAL_TIME, "change", "13,1,", "13,1,6"));
+
+			// the same profile with the changes below in its files
+			written.add(profileFile(Graph.STATION_PARKTIME, "changed", "1,124,1,123,", "1,124,1,123,90",
+					"1,125,1,124,", "1,125,1,124,20"));
+			written.add(profileFile(Graph.LINE_DEPART_INTERVAL_TIME, "changed", "13,1,", "13,1,6"));
+			written.add(profileFile(Graph.SECTION_INFO, "changed", "1,124,123,", "1,124,123,1673,100,1"));
+			written.add(profileFile(Graph.TRANSFER_INFO, "changed", "16,2,13,", "16,2,13,300"));
+
+			Graph g = Checks.graph();
+			g.useProfile(g.readProfile("change"));
+			g.getPaths(PATHS, threads);
+			g.changeSection(124, 123, 100);
+			g.changeParkTime(125, 124, 20);
+			g.changeTransfer(16, 2, 13, 300);
+			g.recompute(threads);
+
+			Graph fresh = Checks.graph();
+			fresh.useProfile(fresh.readProfile("changed"));
+			fresh.getPaths(PATHS, threads);
+
+			CompactGraph changed = g.getCompactGraph();
+			CompactGraph read = fresh.getCompactGraph();
+			int differ = 0;
+			for (int e = 0; e < changed.getEdges(); ++e)
+				if (changed.time(e) != read.time(e) || changed.impedance(e) != read.impedance(e)) {
+					if (differ++ < 5)
+						System.out.println("  " + changed.stationID(changed.source(e)) + "-"
+								+ changed.stationID(changed.target(e)) + ": changed " + changed.time(e) + ", read "
+								+ read.time(e));
+				}
+			checks.check(differ == 0, differ + " connections weighed otherwise than the profile read");
+			checks.check(rows(g, written).equals(rows(fresh, written)),
+					"the recomputed paths are those of the profile read");
+		} finally {
+			for (File f : written)
+				f.delete();
+		}
+	}
+
+	/**
+	 * Write the file of a profile, the base file with some rows replaced
+	 *
+	 * @param base         The base file name
+	 * @param profile      The profile name
+	 * @param replacements Pairs of the start of a row and the row replacing it
+	 * @return The file written
+	 */
+	private static File profileFile(String base, String profile, String... replacements) throws Exception {
+		List<String> rows = Files.readAllLines(new File(base).toPath(), StandardCharsets.ISO_8859_1);
+		for (int i = 0; i < rows.size(); ++i)
+			for (int j = 0; j < replacements.length; j += 2)
+				if (rows.get(i).startsWith(replacements[j]))
+					rows.set(i, replacements[j + 1]);
+
+		File file = new File(base.replace(".txt", "_" + profile + ".txt"));
+		Files.write(file.toPath(), rows, StandardCharsets.ISO_8859_1);
+		return file;
+	}
+
+	/**
+	 * @return The printed rows of the paths of a graph
+	 */
+	private static List<String> rows(Graph g, List<File> written) throws Exception {
+		File file = File.createTempFile("paths", ".txt");
+		written.add(file);
+		g.printPaths(file, 1, false);
+		return Files.readAllLines(file.toPath());
+	}
+}
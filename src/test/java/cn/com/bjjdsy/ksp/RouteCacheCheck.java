@@ -0,0 +1,70 @@
+package cn.com.bjjdsy.ksp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Concurrent misses of one query share a single search, repeated queries are
+ * hits, the paths kept stay under the limit and a change of the graph drops
+ * the cache
+ *
+ */
+final class RouteCacheCheck implements Checks.Check {
+	private static final int CALLERS = 8;
+
+	@Override
+	public void run(Checks checks) throws Exception {
+		Graph g = Checks.graph();
+		List<RouteResult> expected = g.queryPaths(9639, 743, 30);
+
+		// concurrent misses wait for one search
+		RouteCache cache = new RouteCache(g, 1000);
+		ExecutorService pool = Executors.newFixedThreadPool(CALLERS);
+		CountDownLatch ready = new CountDownLatch(CALLERS);
+		List<Future<List<RouteResult>>> calls = new ArrayList<>();
+		for (int i = 0; i < CALLERS; ++i)
+			calls.add(pool.submit(() -> {
+				ready.countDown();
+				ready.await();
+				return cache.get(9639, 743, 30);
+			}));
+		List<RouteResult> first = calls.get(0).get();
+		for (Future<List<RouteResult>> call : calls)
+			checks.check(call.get() == first, "every caller gets the same paths");
+		pool.shutdown();
+
+		checks.check(cache.getMisses() == 1, "one search for " + CALLERS + " callers, got " + cache.getMisses());
+		checks.check(cache.getHits() + cache.getCoalesced() == CALLERS - 1, "the other callers are hits or coalesced");
+		checks.check(rows(first).equals(rows(expected)), "the cached paths are those of queryPaths");
+
+		cache.get(9639, 743, 30);
+		checks.check(cache.getMisses() == 1 && cache.getHits() + cache.getCoalesced() == CALLERS, "a repeated query hits");
+		checks.check(cache.getPaths() == expected.size(), "the query holds its paths, got " + cache.getPaths());
+
+		// the least recently used queries make room
+		RouteCache small = new RouteCache(g, 10);
+		small.get(103, 423, 5);
+		small.get(125, 423, 5);
+		small.get(201, 209, 5);
+		checks.check(small.getPaths() <= 10, "at most 10 paths kept, got " + small.getPaths());
+		checks.check(small.getEvictions() > 0, "queries were evicted");
+		small.get(201, 209, 5);
+		checks.check(small.getHits() == 1, "the most recent query is kept");
+
+		// a change of the graph drops the cache
+		g.changeSection(103, 104, 200);
+		cache.get(9639, 743, 30);
+		checks.check(cache.getMisses() == 2 && cache.size() == 1, "a change of the graph drops the cache");
+	}
+
+	private static String rows(List<RouteResult> routes) {
+		StringBuilder out = new StringBuilder();
+		for (RouteResult r : routes)
+			out.append(r).append('\n');
+		return out.toString();
+	}
+}
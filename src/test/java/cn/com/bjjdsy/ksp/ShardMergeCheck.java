@@ -0,0 +1,84 @@
+package cn.com.bjjdsy.ksp;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * The merged partitions of a run split in three print the same text as the
+ * unsplit run, and partitions of another number of paths or profile are
+ * refused
+ *
+ */
+final class ShardMergeCheck implements Checks.Check {
+	private static final int PATHS = 3;
+	private static final int SHARDS = 3;
+
+	@Override
+	public void run(Checks checks) throws Exception {
+		Graph g = Checks.graph();
+		int threads = Runtime.getRuntime().availableProcessors();
+		File dir = Files.createTempDirectory("shards").toFile();
+
+		// the unsplit run
+		File full = new File(dir, "full.txt");
+		try (PathSink sink = new PathWriter(full, g.getCompactGraph(), threads, false)) {
+			g.streamPaths(PATHS, threads, sink);
+		}
+
+		// the run split in shards and merged
+		File[] parts = new File[SHARDS];
+		for (int i = 0; i < SHARDS; ++i) {
+			ShardSpec shard = new ShardSpec(i, SHARDS);
+			parts[i] = new File(dir, "part_" + i + ".bin");
+			try (PathSink sink = new ShardWriter(parts[i], g, shard, PATHS)) {
+				g.streamPaths(PATHS, threads, shard, sink);
+			}
+		}
+		File merged = new File(dir, "merged.txt");
+		try (PathSink sink = new PathWriter(merged, g.getCompactGraph(), threads, false)) {
+			ShardMerge.merge(parts, g, sink);
+		}
+		checks.check(Arrays.equals(Files.readAllBytes(full.toPath()), Files.readAllBytes(merged.toPath())),
+				"the merged partitions print the unsplit run");
+
+		// a partition of another number of paths
+		File other = new File(dir, "other.bin");
+		try (PathSink sink = new ShardWriter(other, g, new ShardSpec(2, SHARDS), PATHS + 1)) {
+			g.streamPaths(PATHS + 1, threads, new ShardSpec(2, SHARDS), sink);
+		}
+		checks.check(refused(new File[] { parts[0], parts[1], other }, g), "a partition of another number of paths");
+
+		// a partition of another profile
+		g.useProfile(g.readProfile("check"));
+		try (PathSink sink = new ShardWriter(other, g, new ShardSpec(2, SHARDS), PATHS)) {
+			g.streamPaths(PATHS, threads, new ShardSpec(2, SHARDS), sink);
+		}
+		checks.check(refused(new File[] { parts[0], parts[1], other }, g), "a partition of another profile");
+
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	/**
+	 * @return If the merge of the partitions is refused before any path
+	 */
+	private static boolean refused(File[] parts, Graph g) {
+		try {
+			ShardMerge.merge(parts, g, new PathSink() {
+				@Override
+				public void accept(int origin, Path[][] paths) {
+					throw new IllegalStateException("Merged origin " + origin);
+				}
+
+				@Override
+				public void close() {
+				}
+			});
+			return false;
+		} catch (IllegalArgumentException e) {
+			return true;
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package cn.com.bjjdsy.ksp;
+
+import java.util.Random;
+
+/**
+ * Yen's search is exact, so at every rank its path is at most as expensive as
+ * the one the label search keeps, and it finds at least as many paths
+ *
+ */
+final class YenEngineCheck implements Checks.Check {
+	private static final int PATHS = 5;
+	private static final int PAIRS = 300;
+
+	// pairs where the spur search once skipped cheaper valid paths
+	private static final int[][] KNOWN = { { 9639, 743 } };
+
+	@Override
+	public void run(Checks checks) {
+		CompactGraph graph = Checks.graph().getCompactGraph();
+		KShortestPathEngine yen = new YenEngine(graph);
+		KShortestPathEngine labels = new MultiDijkstraEngine(graph);
+
+		for (int[] od : KNOWN)
+			compare(checks, graph, yen, labels, graph.indexOf(od[0]), graph.indexOf(od[1]));
+
+		Random random = new Random(42);
+		for (int i = 0; i < PAIRS; ++i) {
+			int origin = random.nextInt(graph.getNodes());
+			int destination = random.nextInt(graph.getNodes());
+			if (origin != destination)
+				compare(checks, graph, yen, labels, origin, destination);
+		}
+	}
+
+	/**
+	 * Compare the paths of one pair, rank by rank
+	 */
+	private static void compare(Checks checks, CompactGraph graph, KShortestPathEngine yen,
+			KShortestPathEngine labels, int origin, int destination) {
+		Path[] exact = yen.search(origin, destination, PATHS);
+		Path[] kept = labels.search(origin, destination, PATHS);
+
+		String od = graph.stationID(origin) + "->" + graph.stationID(destination);
+		if (exact.length < kept.length) {
+			checks.check(false, od + ": Yen found " + exact.length + " paths, the label search " + kept.length);
+			return;
+		}
+		for (int i = 0; i < kept.length; ++i)
+			if (exact[i].getImpedance() > kept[i].getImpedance() + 1e-9) {
+				checks.check(false, od + " rank " + (i + 1) + ": Yen " + exact[i].getImpedance()
+						+ ", the label search " + kept[i].getImpedance());
+				return;
+			}
+	}
+}